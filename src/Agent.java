@@ -9,7 +9,7 @@ public abstract class Agent {
         this.color = color;
     }
 
-    abstract public double getScore(Game g);
+    abstract public int getScore(Game g);
 
     abstract public Move getMove(Game g, int color);
 }
@@ -1,36 +1,81 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Board {
     static final String DEFAULT_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
 
     int[] board; // stores the int value of the piece at the index
+    long[][] bitboards; // stores occupancy of each piece type of each color
+    long[] colorBitboards; // stores occupancy of each color
+    long occupied; // stores occupancy of all pieces
     int[][] pieces; // stores index of pieces of each colors
     int[] pieceCounts; // stores the number of pieces of each color
-    boolean[] pins; // stores if square is part of pin
-    boolean[] threatening; // stores if square is threatened
-    boolean[] pawnThreats; // stores if pawn threatening square
+    int[] pieceSlots; // stores the index into pieces of the piece at each square
+    int[] kingSquares; // stores the index of the king of each color
+    long pins; // stores squares that are part of a pin
+    long pinned; // stores pieces of the active color pinned to their king
+    long threats; // stores squares threatened by the opposite color
+    long pawnThreats; // stores squares threatened by pawns of the opposite color
     int threatCount;
-    boolean[] hasMoved; // stores if any changes made at square
+    int castleRights; // stores castling rights as QKqk bits
     ArrayList<Move> moves;
+    MoveGenerator moveGenerator;
+    boolean attackInfoValid, movesValid; // derived state is rebuilt lazily after the position changes
     boolean multiCheck, singleCheck;
-    boolean[] checkPath; // stores if square is part of check path
+    long checkMask; // stores squares that resolve a single check, all squares if not in check
     int activeColor, enPassantable, kingInd;
     Game game;
     long zobristKey;
+    int halfMoves;
+    int midgameScore, endgameScore; // material and piece-square sums, white minus black
+    int phase; // non-pawn material of both colors in phase units, TOTAL_PHASE at the start down to 0
+    int[] materials; // basic material of each color
+
+    // undo stack indexed by ply, one record per move made on this board
+    int ply;
+    int nullMovePly; // ply just after the latest null move, repetitions are not matched across a pass
+    int[] undoCaptured, undoEnPassant, undoHalfMoves, undoCastleRights, undoNullMovePly;
+    long[] undoKeys;
+    int[] exchangeGains; // scratch for staticExchange, one entry per capture in the sequence
 
     static final int EMPTY = -1;
+    static final int UNDO_SIZE = 512;
+    static final int WHITE_QUEENSIDE = 0b1000, WHITE_KINGSIDE = 0b0100, BLACK_QUEENSIDE = 0b0010, BLACK_KINGSIDE = 0b0001;
+    static final int[] CASTLE_MASKS = new int[64]; // rights kept when a move touches the square
+    static final int[] EXCHANGE_VALUES = new int[]{100, 320, 330, 500, 900, 20000}; // by type, the king can only take last
+    static final int[] PHASE_WEIGHTS = new int[]{0, 1, 1, 2, 4, 0}; // by type
+    static final int TOTAL_PHASE = 24, ENDGAME_PHASE = 6;
+
+    static {
+        Arrays.fill(CASTLE_MASKS, 0b1111);
+        CASTLE_MASKS[0] = ~BLACK_QUEENSIDE;
+        CASTLE_MASKS[4] = ~(BLACK_QUEENSIDE | BLACK_KINGSIDE);
+        CASTLE_MASKS[7] = ~BLACK_KINGSIDE;
+        CASTLE_MASKS[56] = ~WHITE_QUEENSIDE;
+        CASTLE_MASKS[60] = ~(WHITE_QUEENSIDE | WHITE_KINGSIDE);
+        CASTLE_MASKS[63] = ~WHITE_KINGSIDE;
+    }
 
     public Board() {
         board = new int[64];
+        bitboards = new long[2][6];
+        colorBitboards = new long[2];
         pieces = new int[2][16];
         pieceCounts = new int[2];
-        pins = new boolean[64];
-        threatening = new boolean[64];
-        pawnThreats = new boolean[64];
-        hasMoved = new boolean[64];
-        checkPath = new boolean[64];
+        pieceSlots = new int[64];
+        kingSquares = new int[]{EMPTY, EMPTY};
+        materials = new int[2];
+        Arrays.fill(pieceSlots, EMPTY);
         moves = new ArrayList<>();
+        moveGenerator = new MoveGenerator();
         enPassantable = EMPTY;
+        undoCaptured = new int[UNDO_SIZE];
+        undoEnPassant = new int[UNDO_SIZE];
+        undoHalfMoves = new int[UNDO_SIZE];
+        undoNullMovePly = new int[UNDO_SIZE];
+        undoCastleRights = new int[UNDO_SIZE];
+        undoKeys = new long[UNDO_SIZE];
+        exchangeGains = new int[32];
     }
 
     public Board(String fen, Game game) {
@@ -83,23 +128,29 @@ public class Board {
         activeColor = fields[1].equals("w") ? Piece.WHITE : Piece.BLACK;
 
         // castling
-        hasMoved[0] = !fields[2].contains("q");
-        hasMoved[7] = !fields[2].contains("k");
-        hasMoved[56] = !fields[2].contains("Q");
-        hasMoved[63] = !fields[2].contains("K");
+        castleRights |= fields[2].contains("Q") ? WHITE_QUEENSIDE : 0;
+        castleRights |= fields[2].contains("K") ? WHITE_KINGSIDE : 0;
+        castleRights |= fields[2].contains("q") ? BLACK_QUEENSIDE : 0;
+        castleRights |= fields[2].contains("k") ? BLACK_KINGSIDE : 0;
 
         enPassantable = coorConvert(fields[3]);
+        if (fields.length > 4) {
+            halfMoves = Integer.parseInt(fields[4]);
+        }
 
         zobristKey = Zobrist.calcKey(this);
-        updateInfo();
     }
 
     public Board(Board from) {
         this();
-        moves = new ArrayList<>(from.moves.size());
-        for (Move move : from.moves) {
-            moves.add(new Move(move));
+        if (from.movesValid) {
+            moves = new ArrayList<>(from.moves.size());
+            for (Move move : from.moves) {
+                moves.add(new Move(move));
+            }
         }
+        this.attackInfoValid = from.attackInfoValid;
+        this.movesValid = from.movesValid;
         this.threatCount = from.threatCount;
         this.game = from.game;
         this.enPassantable = from.enPassantable;
@@ -108,9 +159,34 @@ public class Board {
         this.activeColor = from.activeColor;
         this.kingInd = from.kingInd;
         this.zobristKey = from.zobristKey;
+        this.halfMoves = from.halfMoves;
+        this.midgameScore = from.midgameScore;
+        this.endgameScore = from.endgameScore;
+        this.phase = from.phase;
+        this.castleRights = from.castleRights;
+        this.ply = from.ply;
+        this.nullMovePly = from.nullMovePly;
+        this.undoCaptured = Arrays.copyOf(from.undoCaptured, from.undoCaptured.length);
+        this.undoEnPassant = Arrays.copyOf(from.undoEnPassant, from.undoEnPassant.length);
+        this.undoHalfMoves = Arrays.copyOf(from.undoHalfMoves, from.undoHalfMoves.length);
+        this.undoNullMovePly = Arrays.copyOf(from.undoNullMovePly, from.undoNullMovePly.length);
+        this.undoCastleRights = Arrays.copyOf(from.undoCastleRights, from.undoCastleRights.length);
+        this.undoKeys = Arrays.copyOf(from.undoKeys, from.undoKeys.length);
+        this.occupied = from.occupied;
+        this.pins = from.pins;
+        this.pinned = from.pinned;
+        this.threats = from.threats;
+        this.pawnThreats = from.pawnThreats;
+        this.checkMask = from.checkMask;
 
         for (int i = 0; i < 2; i++) {
+            colorBitboards[i] = from.colorBitboards[i];
+            for (int j = 0; j < 6; j++) {
+                bitboards[i][j] = from.bitboards[i][j];
+            }
             pieceCounts[i] = from.pieceCounts[i];
+            kingSquares[i] = from.kingSquares[i];
+            materials[i] = from.materials[i];
             for (int j = 0; j < pieceCounts[i]; j++) {
                 pieces[i][j] = from.pieces[i][j];
             }
@@ -118,112 +194,116 @@ public class Board {
 
         for (int i = 0; i < 64; i++) {
             this.board[i] = from.board[i];
-            this.pins[i] = from.pins[i];
-            this.threatening[i] = from.threatening[i];
-            this.pawnThreats[i] = from.pawnThreats[i];
-            this.hasMoved[i] = from.hasMoved[i];
-            this.checkPath[i] = from.checkPath[i];
+            this.pieceSlots[i] = from.pieceSlots[i];
         }
     }
 
+    // blends the middlegame and endgame sums by phase, so the score moves smoothly as material comes off
     public int getMaterialScore() {
-        boolean isEndgame = isEndgame();
-        int whiteTotal = 0, blackTotal = 0;
-        for (int color = Piece.WHITE; color <= Piece.BLACK; color++) {
-            for (int i = 0; i < pieceCounts[color]; i++) {
-                int ind = pieces[color][i];
-                int y = ind / 8;
-                int x = ind - y * 8;
-                if (color == 0) {
-                    whiteTotal += Piece.getWeight(board[ind], y, x, isEndgame);
-                } else {
-                    blackTotal += Piece.getWeight(board[ind], y, x, isEndgame);
-                }
-            }
-        }
-        return whiteTotal - blackTotal;
+        int midgameWeight = Math.min(phase, TOTAL_PHASE); // promotions can push the phase past the start
+        return (midgameScore * midgameWeight + endgameScore * (TOTAL_PHASE - midgameWeight)) / TOTAL_PHASE;
     }
 
     public boolean isEndgame() {
-        int cumScore = getBasicMaterialScore(activeColor) + getBasicMaterialScore(Piece.getOpposite(activeColor));
-        return cumScore <= 1650;
+        return phase <= ENDGAME_PHASE;
     }
 
     public int getMobilityDiff() {
-        return moves.size() - threatCount;
+        return getMoves().size() - threatCount;
     }
 
     public void addPiece(int piece, int index) {
         if (piece != -1) {
             int color = Piece.getColor(piece);
             board[index] = piece;
+            toggleBitboards(piece, 1L << index);
             pieces[color][pieceCounts[color]] = index;
+            pieceSlots[index] = pieceCounts[color];
             pieceCounts[color]++;
+            midgameScore += Piece.MIDGAME_SCORES[piece][index];
+            endgameScore += Piece.ENDGAME_SCORES[piece][index];
+            phase += PHASE_WEIGHTS[Piece.getType(piece)];
+            materials[color] += Piece.getWeight(Piece.getType(piece));
+            if (Piece.getType(piece) == Piece.KING) {
+                kingSquares[color] = index;
+            }
         }
     }
 
     public void movePiece(int start, int end) {
-        if (board[start] != EMPTY) {
-            int color = Piece.getColor(board[start]);
-            int type = Piece.getType(board[start]);
-            zobristKey ^= Zobrist.piecesArr[type][color][start]; // unset start
-        }
         if (board[end] != EMPTY) {
-            int type = Piece.getType(board[end]);
-            int color = Piece.getColor(board[end]);
-            zobristKey ^= Zobrist.piecesArr[type][color][end]; // unset old end
             removePiece(end);
         }
 
         board[end] = board[start];
         board[start] = EMPTY;
         if (board[end] != EMPTY) {
-            int color = Piece.getColor(board[end]);
-            int type = Piece.getType(board[end]);
-            zobristKey ^= Zobrist.piecesArr[type][color][end]; // set end
-            for (int i = 0; i < pieceCounts[color]; i++) {
-                if (pieces[color][i] == start) {
-                    pieces[color][i] = end;
-                    break;
-                }
+            int piece = board[end];
+            int color = Piece.getColor(piece);
+            toggleBitboards(piece, 1L << start | 1L << end);
+            midgameScore += Piece.MIDGAME_SCORES[piece][end] - Piece.MIDGAME_SCORES[piece][start];
+            endgameScore += Piece.ENDGAME_SCORES[piece][end] - Piece.ENDGAME_SCORES[piece][start];
+            int slot = pieceSlots[start];
+            pieces[color][slot] = end;
+            pieceSlots[end] = slot;
+            pieceSlots[start] = EMPTY;
+            if (Piece.getType(board[end]) == Piece.KING) {
+                kingSquares[color] = end;
             }
         }
     }
 
+    // flips the given squares in every bitboard the piece belongs to
+    private void toggleBitboards(int piece, long squares) {
+        int color = Piece.getColor(piece);
+        bitboards[color][Piece.getType(piece)] ^= squares;
+        colorBitboards[color] ^= squares;
+        occupied ^= squares;
+    }
+
     public void removePiece(int index) {
         int piece = board[index];
         if (piece != EMPTY) {
             int color = Piece.getColor(piece);
             board[index] = EMPTY;
-            for (int i = 0; i < pieceCounts[color]; i++) {
-                if (pieces[color][i] == index) {
-                    pieces[color][i] = pieces[color][pieceCounts[color] - 1]; // swap with last piece to avoid holes
-                    pieces[color][pieceCounts[color] - 1] = EMPTY;
-                    break;
-                }
-            }
+            toggleBitboards(piece, 1L << index);
+            int slot = pieceSlots[index];
+            int last = pieces[color][pieceCounts[color] - 1];
+            pieces[color][slot] = last; // swap with last piece to avoid holes
+            pieceSlots[last] = slot;
+            pieces[color][pieceCounts[color] - 1] = EMPTY;
+            pieceSlots[index] = EMPTY;
             pieceCounts[color]--;
+            midgameScore -= Piece.MIDGAME_SCORES[piece][index];
+            endgameScore -= Piece.ENDGAME_SCORES[piece][index];
+            phase -= PHASE_WEIGHTS[Piece.getType(piece)];
+            materials[color] -= Piece.getWeight(Piece.getType(piece));
+            if (Piece.getType(piece) == Piece.KING) {
+                kingSquares[color] = EMPTY;
+            }
         }
     }
 
     public boolean isChecked() {
+        updateAttackInfo();
         if (kingInd == EMPTY) {
             return true;
         }
-        return threatening[kingInd];
+        return (threats & 1L << kingInd) != 0;
     }
 
     public boolean isCheckmate() {
-        return isChecked() && moves.size() == 0;
+        return isChecked() && getMoves().size() == 0;
     }
 
     public boolean isStalemate() {
         if (pieceCounts[0] == 1 && pieceCounts[1] == 1) { // only kings remain
             return true;
         }
+        updateAttackInfo();
         if (kingInd != EMPTY) {
-            if (!threatening[kingInd]) {
-                return moves.size() == 0;
+            if ((threats & 1L << kingInd) == 0) {
+                return getMoves().size() == 0;
             } else {
                 return false;
             }
@@ -232,223 +312,393 @@ public class Board {
     }
 
     public void updatePinningAndCheck() {
-        pins = new boolean[64];
-        checkPath = new boolean[64];
+        pins = 0;
         multiCheck = false;
         singleCheck = false;
+        pinned = 0;
+        checkMask = ~0L;
 
         if (kingInd != EMPTY) {
-            for (int offInd = 0; offInd < MoveGenerator.ALL_OFFSETS.length; offInd++) {
-                int offset = MoveGenerator.ALL_OFFSETS[offInd];
-                int curr = kingInd + offset;
-                int offCount = 1;
-                int pinning = EMPTY;
-                for (int j = 0; j < PrecomputedMoveData.distToEdge[kingInd][offInd]; j++) {
-                    int piece = board[curr];
-                    if (piece != EMPTY) {
-                        int color = Piece.getColor(piece);
-                        int type = Piece.getType(piece);
-                        if (color == activeColor) {
-                            if (pinning == EMPTY) {
-                                pinning = curr;
-                            } else {
-                                break;
-                            }
-                        } else {
-                            boolean isPin = type == Piece.QUEEN;
-                            isPin |= type == Piece.ROOK && (offset == -1 || offset == 1 || offset == 8 || offset == -8);
-                            isPin |= type == Piece.BISHOP && (offset == -9 || offset == 9 || offset == 7 || offset == -7);
-                            isPin |= offCount == 1 && type == Piece.PAWN && (offset == -9 || offset == 9 || offset == 7 || offset == -7);
-
-                            if (pinning != EMPTY && isPin) {
-                                for (int i = 0; i < offCount; i++) {
-                                    pins[curr + offset * -1 * i] = true;
-                                }
-                            } else if (pinning == EMPTY) {
-                                if (isPin) {
-                                    if (singleCheck) {
-                                        multiCheck = true;
-                                    }
-                                    for (int i = 0; i < offCount; i++) {
-                                        checkPath[curr + offset * -1 * i] = true;
-                                    }
-                                    singleCheck = true;
-                                }
-                            }
-                            break;
-                        }
-                    }
-                    curr += offset;
-                    offCount++;
+            int color = Piece.getOpposite(activeColor);
+            long[] enemy = bitboards[color];
+            long checkers = PrecomputedMoveData.knightAttacks[kingInd] & enemy[Piece.KNIGHT];
+            checkers |= PrecomputedMoveData.pawnAttacks[activeColor][kingInd] & enemy[Piece.PAWN];
+            checkMask = checkers;
+
+            // sliders that would see the king on an empty board either check, pin, or are blocked
+            long snipers = PrecomputedMoveData.rookAttacks(kingInd, 0) & (enemy[Piece.ROOK] | enemy[Piece.QUEEN]);
+            snipers |= PrecomputedMoveData.bishopAttacks(kingInd, 0) & (enemy[Piece.BISHOP] | enemy[Piece.QUEEN]);
+            while (snipers != 0) {
+                int sniper = Long.numberOfTrailingZeros(snipers);
+                snipers &= snipers - 1;
+                long path = PrecomputedMoveData.between[kingInd][sniper];
+                long blockers = path & occupied;
+                if (blockers == 0) {
+                    checkers |= 1L << sniper;
+                    checkMask |= path | 1L << sniper;
+                } else if ((blockers & (blockers - 1)) == 0 && (blockers & colorBitboards[activeColor]) != 0) {
+                    pinned |= blockers;
+                    pins |= path | 1L << sniper;
                 }
             }
+
+            if (checkers != 0) {
+                singleCheck = true;
+                multiCheck = Long.bitCount(checkers) > 1;
+            } else {
+                checkMask = ~0L;
+            }
         }
     }
 
     public void updateThreatening() {
-        threatening = new boolean[64];
-        pawnThreats = new boolean[64];
-        threatCount = 0;
-        ArrayList<Move> threats = new MoveGenerator().generateThreats(this);
-        for (Move threat : threats) {
-            if (!threatening[threat.end]) {
-                threatening[threat.end] = true;
-                threatCount++;
-            }
+        int color = Piece.getOpposite(activeColor);
+        long[] enemy = bitboards[color];
+        // king is removed so that it cannot step backwards along a slider's ray
+        long blockers = occupied;
+        if (kingInd != EMPTY) {
+            blockers ^= 1L << kingInd;
         }
 
-        int color = Piece.getOpposite(activeColor);
-        for (int i = 0; i < pieceCounts[color]; i++) {
-            int piece = board[pieces[color][i]];
-            int type = Piece.getType(piece);
-            int[] moves = null;
-            if (type == Piece.KING) {
-                moves = PrecomputedMoveData.kingMoves[pieces[color][i]];
-            } else if (type == Piece.PAWN) {
-                if (color == Piece.BLACK) {
-                    moves = PrecomputedMoveData.blackPawnAttacks[pieces[color][i]];
-                } else {
-                    moves = PrecomputedMoveData.whitePawnAttacks[pieces[color][i]];
-                }
-            } else if (type == Piece.KNIGHT) {
-                moves = PrecomputedMoveData.knightMoves[pieces[color][i]];
-            }
+        pawnThreats = getPawnAttacks(enemy[Piece.PAWN], color);
+        long attacks = pawnThreats;
+        attacks |= getSlideAttacks(enemy[Piece.ROOK] | enemy[Piece.QUEEN], blockers, true);
+        attacks |= getSlideAttacks(enemy[Piece.BISHOP] | enemy[Piece.QUEEN], blockers, false);
+        long knights = enemy[Piece.KNIGHT];
+        while (knights != 0) {
+            attacks |= PrecomputedMoveData.knightAttacks[Long.numberOfTrailingZeros(knights)];
+            knights &= knights - 1;
+        }
+        if (enemy[Piece.KING] != 0) {
+            attacks |= PrecomputedMoveData.kingAttacks[Long.numberOfTrailingZeros(enemy[Piece.KING])];
+        }
 
-            if (moves != null) {
-                for (int j = 0; j < moves.length; j++) {
-                    if (!threatening[moves[j]]) {
-                        threatening[moves[j]] = true;
-                        threatCount++;
-                    }
-                    if (moves[j] == kingInd && type == Piece.KNIGHT) {
-                        checkPath[pieces[color][i]] = true;
-                        if (singleCheck) {
-                            multiCheck = true;
-                        }
-                        singleCheck = true;
-                    }
-                    if (type == Piece.PAWN) {
-                        pawnThreats[moves[j]] = true;
-                    }
-                }
+        threats = attacks;
+        threatCount = Long.bitCount(attacks);
+    }
+
+    public static long getPawnAttacks(long pawns, int color) {
+        long notFileA = 0xFEFEFEFEFEFEFEFEL;
+        long notFileH = 0x7F7F7F7F7F7F7F7FL;
+        if (color == Piece.WHITE) {
+            return (pawns & notFileA) >>> 9 | (pawns & notFileH) >>> 7;
+        }
+        return (pawns & notFileA) << 7 | (pawns & notFileH) << 9;
+    }
+
+    public static long getSlideAttacks(long sliders, long blockers, boolean orthogonal) {
+        long attacks = 0;
+        while (sliders != 0) {
+            int ind = Long.numberOfTrailingZeros(sliders);
+            sliders &= sliders - 1;
+            attacks |= orthogonal ? PrecomputedMoveData.rookAttacks(ind, blockers) : PrecomputedMoveData.bishopAttacks(ind, blockers);
+        }
+        return attacks;
+    }
+
+    // finds pieces of the given color attacking the index with the given occupancy
+    public long getAttackers(int ind, int color, long blockers) {
+        long[] attacker = bitboards[color];
+        long attackers = PrecomputedMoveData.knightAttacks[ind] & attacker[Piece.KNIGHT];
+        attackers |= PrecomputedMoveData.kingAttacks[ind] & attacker[Piece.KING];
+        attackers |= PrecomputedMoveData.pawnAttacks[Piece.getOpposite(color)][ind] & attacker[Piece.PAWN];
+        attackers |= PrecomputedMoveData.rookAttacks(ind, blockers) & (attacker[Piece.ROOK] | attacker[Piece.QUEEN]);
+        attackers |= PrecomputedMoveData.bishopAttacks(ind, blockers) & (attacker[Piece.BISHOP] | attacker[Piece.QUEEN]);
+        return attackers;
+    }
+
+    // plays out every capture on the move's end square, least valuable attacker first and including pieces
+    // revealed behind others, and returns the material the moving side ends up with. Pins are ignored.
+    public int staticExchange(int move) {
+        int start = Move.getStart(move);
+        int end = Move.getEnd(move);
+        int type = Move.getType(move);
+        long blockers = occupied ^ 1L << start;
+        int value = 0;
+        if (Move.isCapture(move)) {
+            value = EXCHANGE_VALUES[Piece.getType(Move.getCaptured(move))];
+        }
+        if (type == Move.EN_PASSANT) {
+            blockers ^= 1L << ((start / 8) * 8 + end % 8);
+        }
+        int onSquare = Piece.getType(Move.getActor(move));
+        if (type == Move.PROMOTION) {
+            onSquare = Piece.getType(Move.getPromoteTo(move));
+            value += EXCHANGE_VALUES[onSquare] - EXCHANGE_VALUES[Piece.PAWN];
+        }
+
+        long diagonal = bitboards[0][Piece.BISHOP] | bitboards[1][Piece.BISHOP] | bitboards[0][Piece.QUEEN] | bitboards[1][Piece.QUEEN];
+        long straight = bitboards[0][Piece.ROOK] | bitboards[1][Piece.ROOK] | bitboards[0][Piece.QUEEN] | bitboards[1][Piece.QUEEN];
+        long attackers = (getAttackers(end, Piece.WHITE, blockers) | getAttackers(end, Piece.BLACK, blockers)) & blockers;
+        int color = Piece.getOpposite(Piece.getColor(Move.getActor(move)));
+        int depth = 0;
+        exchangeGains[0] = value;
+        while (true) {
+            long own = attackers & colorBitboards[color];
+            if (own == 0) {
+                break;
+            }
+            int attacker = Piece.PAWN;
+            while ((own & bitboards[color][attacker]) == 0) {
+                attacker++;
             }
+            depth++;
+            // what this side has gained if the exchange stops after its capture
+            exchangeGains[depth] = EXCHANGE_VALUES[onSquare] - exchangeGains[depth - 1];
+            blockers ^= Long.lowestOneBit(own & bitboards[color][attacker]);
+            attackers |= PrecomputedMoveData.bishopAttacks(end, blockers) & diagonal;
+            attackers |= PrecomputedMoveData.rookAttacks(end, blockers) & straight;
+            attackers &= blockers;
+            onSquare = attacker;
+            color = Piece.getOpposite(color);
+        }
+        // either side may stop capturing whenever continuing would lose material
+        while (depth > 0) {
+            exchangeGains[depth - 1] = -Math.max(-exchangeGains[depth - 1], exchangeGains[depth]);
+            depth--;
+        }
+        return exchangeGains[0];
+    }
+
+    // marks pins, threats, and moves as stale, they are recomputed the next time they are needed
+    public void invalidateInfo() {
+        attackInfoValid = false;
+        movesValid = false;
+    }
+
+    public void updateAttackInfo() {
+        if (!attackInfoValid) {
+            kingInd = getKingInd(activeColor);
+            updatePinningAndCheck();
+            updateThreatening();
+            attackInfoValid = true;
         }
     }
 
-    public void updateInfo() {
-        kingInd = getKingInd(activeColor);
-        updatePinningAndCheck();
-        updateThreatening();
-        moves = new MoveGenerator().generateMoves(this);
+    public ArrayList<Move> getMoves() {
+        if (!movesValid) {
+            updateAttackInfo();
+            moves = moveGenerator.generateMoves(this);
+            movesValid = true;
+        }
+        return moves;
+    }
+
+    // fills the buffer with legal moves encoded as ints and returns how many were added
+    public int generateMoves(int[] buffer) {
+        return generateMoves(buffer, MoveGenerator.GEN_ALL);
+    }
+
+    public int generateMoves(int[] buffer, int stage) {
+        updateAttackInfo();
+        return moveGenerator.generateMoves(this, buffer, stage);
+    }
+
+    public boolean isLegal(int move) {
+        updateAttackInfo();
+        return moveGenerator.isLegal(this, move);
+    }
+
+    public boolean isThreatened(int ind) {
+        updateAttackInfo();
+        return (threats & 1L << ind) != 0;
+    }
+
+    public boolean isPawnThreatened(int ind) {
+        updateAttackInfo();
+        return (pawnThreats & 1L << ind) != 0;
+    }
+
+    public boolean isPinned(int ind) {
+        updateAttackInfo();
+        return (pins & 1L << ind) != 0;
+    }
+
+    public boolean isOnCheckPath(int ind) {
+        updateAttackInfo();
+        return singleCheck && (checkMask & 1L << ind) != 0;
     }
 
     public void makeMove(Move move) {
-        int oldCastleRights = getCastleRights();
+        makeMove(move.toInt());
+    }
+
+    public void makeMove(int move) {
+        int type = Move.getType(move);
+        int start = Move.getStart(move);
+        int end = Move.getEnd(move);
+        int actor = Move.getActor(move);
+        int capturedInd = type == Move.EN_PASSANT ? (start / 8) * 8 + end % 8 : end;
+        int captured = type == Move.CASTLE ? EMPTY : board[capturedInd];
+        int color = Piece.getColor(actor);
+
+        // everything unmakeMove cannot recover from the move itself
+        if (ply == undoKeys.length) {
+            growUndoStack();
+        }
+        undoCaptured[ply] = captured;
+        undoEnPassant[ply] = enPassantable;
+        undoHalfMoves[ply] = halfMoves;
+        undoCastleRights[ply] = castleRights;
+        undoKeys[ply] = zobristKey;
+        ply++;
+
+        if (Piece.getType(actor) == Piece.PAWN || captured != EMPTY) {
+            halfMoves = 0;
+        } else {
+            halfMoves++;
+        }
+
         // handle en passant
         if (enPassantable != EMPTY) {
             int enCol = enPassantable % 8 + 1;
             zobristKey ^= Zobrist.enPassantFile[enCol]; // unset old en passant
             enPassantable = EMPTY;
         }
-        if (Piece.getType(move.actor) == Piece.PAWN && !hasMoved[move.start] && Math.abs(move.end - move.start) == 16) {
-            enPassantable = move.end + (Piece.getColor(move.actor) == Piece.WHITE ? 8 : -8);
+        if (Piece.getType(actor) == Piece.PAWN && Math.abs(end - start) == 16) {
+            enPassantable = end + (color == Piece.WHITE ? 8 : -8);
             int enCol = enPassantable % 8 + 1;
             zobristKey ^= Zobrist.enPassantFile[enCol]; // set new en passant
         }
 
-        hasMoved[move.start] = true;
-        movePiece(move.start, move.end);
+        if (captured != EMPTY) {
+            zobristKey ^= Zobrist.piecesArr[Piece.getType(captured)][Piece.getColor(captured)][capturedInd]; // unset captured piece
+            removePiece(capturedInd);
+        }
+
+        zobristKey ^= Zobrist.piecesArr[Piece.getType(actor)][color][start]; // unset start
+        movePiece(start, end);
+
+        if (type == Move.PROMOTION) {
+            int promoteTo = Move.getPromoteTo(move);
+            zobristKey ^= Zobrist.piecesArr[Piece.getType(promoteTo)][color][end]; // set new type
+            removePiece(end);
+            addPiece(promoteTo, end);
+        } else {
+            zobristKey ^= Zobrist.piecesArr[Piece.getType(actor)][color][end]; // set end
+        }
 
-        if (move.type == Move.CASTLE) {
-            // if a castle, captured represents index of rook
-            int offset = move.start - move.end > 0 ? 1 : -1;
-            movePiece(move.captured, move.end + offset);
-        } else if (move.type == Move.PROMOTION) {
-            int color = Piece.getColor(move.actor);
-            zobristKey ^= Zobrist.piecesArr[Piece.PAWN][color][move.end]; // unset pawn
-            zobristKey ^= Zobrist.piecesArr[Piece.getType(move.promoteTo)][color][move.end]; // set new type
-            board[move.end] = move.promoteTo;
-        } else if (move.type == Move.EN_PASSANT) {
-            int row = move.start / 8;
-            int col = move.end % 8;
-            zobristKey ^= Zobrist.piecesArr[Piece.PAWN][Piece.getColor(move.captured)][row * 8 + col];
-            removePiece(row * 8 + col);
+        if (type == Move.CASTLE) {
+            int rook = Move.getCastleRook(start, end);
+            int offset = start - end > 0 ? 1 : -1;
+            zobristKey ^= Zobrist.piecesArr[Piece.ROOK][color][rook]; // unset rook
+            zobristKey ^= Zobrist.piecesArr[Piece.ROOK][color][end + offset]; // set rook
+            movePiece(rook, end + offset);
         }
 
         activeColor = Piece.getOpposite(activeColor);
-        updateInfo();
+        invalidateInfo();
 
-        int newCastleRights = getCastleRights();
-        if (newCastleRights != oldCastleRights) {
-            zobristKey ^= Zobrist.castlingRights[oldCastleRights]; // unset old castling rights
+        // moving from or to a king or rook home square loses the matching rights
+        int newCastleRights = castleRights & CASTLE_MASKS[start] & CASTLE_MASKS[end];
+        if (newCastleRights != castleRights) {
+            zobristKey ^= Zobrist.castlingRights[castleRights]; // unset old castling rights
             zobristKey ^= Zobrist.castlingRights[newCastleRights]; // set new castling rights
+            castleRights = newCastleRights;
         }
         zobristKey ^= Zobrist.activeColor;
-        game.repeatHistory.push(zobristKey);
     }
 
     public void unmakeMove(Move move) {
-        int oldCastleRights = getCastleRights();
-        if (move.type != Move.PROMOTION) {
-            movePiece(move.end, move.start);
-        }
+        unmakeMove(move.toInt());
+    }
 
-        if (enPassantable != EMPTY) {
-            int enCol = enPassantable % 8 + 1;
-            zobristKey ^= Zobrist.enPassantFile[enCol]; // unset old en passant
-            enPassantable = EMPTY;
+    // restores the position from the undo stack, so it must mirror the last makeMove
+    public void unmakeMove(int move) {
+        int type = Move.getType(move);
+        int start = Move.getStart(move);
+        int end = Move.getEnd(move);
+        ply--;
+        if (type == Move.PROMOTION) {
+            removePiece(end);
+            addPiece(Move.getActor(move), start);
+        } else {
+            movePiece(end, start);
         }
 
-        if (game.moveHistory.size() > 1) {
-            Move lastMove = game.moveHistory.get(game.moveHistory.size() - 2);
-            if (Piece.getType(lastMove.actor) == Piece.PAWN && lastMove.firstMove && Math.abs(lastMove.end - lastMove.start) == 16) {
-                enPassantable = lastMove.end + (Piece.getColor(lastMove.actor) == Piece.WHITE ? 8 : -8);
-                int enCol = enPassantable % 8 + 1;
-                zobristKey ^= Zobrist.enPassantFile[enCol]; // set new en passant
-            }
+        if (type == Move.CASTLE) {
+            int offset = start - end > 0 ? 1 : -1;
+            movePiece(end + offset, Move.getCastleRook(start, end));
         }
 
-        if (move.firstMove) {
-            hasMoved[move.start] = false;
-        }
-
-        if (move.type == Move.EN_PASSANT) {
-            int row = move.start / 8;
-            int col = move.end % 8;
-            addPiece(move.captured, row * 8 + col);
-            zobristKey ^= Zobrist.piecesArr[Piece.PAWN][Piece.getColor(move.captured)][row * 8 + col];
-        } else if (move.type == Move.CASTLE) {
-            // if a castle, captured represents original index of rook
-            int offset = move.start - move.end > 0 ? 1 : -1;
-            movePiece(move.end + offset, move.captured);
-        } else if (move.type == Move.PROMOTION) {
-            int color = Piece.getColor(move.actor);
-            zobristKey ^= Zobrist.piecesArr[Piece.getType(move.promoteTo)][color][move.end]; // unset new type
-            zobristKey ^= Zobrist.piecesArr[Piece.PAWN][color][move.start]; // set pawn
-            removePiece(move.end);
-            addPiece(move.actor, move.start);
-            board[move.end] = EMPTY;
-        }
-
-        if (move.type != Move.EN_PASSANT && move.type != Move.CASTLE) {
-            addPiece(move.captured, move.end);
-            if (move.captured != -1) {
-                zobristKey ^= Zobrist.piecesArr[Piece.getType(move.captured)][Piece.getColor(move.captured)][move.end]; // set captured piece
-            }
+        int captured = undoCaptured[ply];
+        if (captured != EMPTY) {
+            int capturedInd = type == Move.EN_PASSANT ? (start / 8) * 8 + end % 8 : end;
+            addPiece(captured, capturedInd);
         }
 
+        castleRights = undoCastleRights[ply];
+        enPassantable = undoEnPassant[ply];
+        halfMoves = undoHalfMoves[ply];
+        zobristKey = undoKeys[ply];
+
         activeColor = Piece.getOpposite(activeColor);
-        updateInfo();
-        if (game.repeatHistory.size() > 0) {
-            game.repeatHistory.pop();
+        invalidateInfo();
+    }
+
+    // passes the turn for null move pruning, so only the side to move, en passant square and key change
+    public void makeNullMove() {
+        if (ply == undoKeys.length) {
+            growUndoStack();
         }
+        undoCaptured[ply] = EMPTY;
+        undoEnPassant[ply] = enPassantable;
+        undoHalfMoves[ply] = halfMoves;
+        undoCastleRights[ply] = castleRights;
+        undoKeys[ply] = zobristKey;
+        undoNullMovePly[ply] = nullMovePly;
+        ply++;
+        nullMovePly = ply;
 
-        int newCastleRights = getCastleRights();
-        if (newCastleRights != oldCastleRights) {
-            zobristKey ^= Zobrist.castlingRights[oldCastleRights]; // unset old castling rights
-            zobristKey ^= Zobrist.castlingRights[newCastleRights]; // set new castling rights
+        if (enPassantable != EMPTY) {
+            zobristKey ^= Zobrist.enPassantFile[enPassantable % 8 + 1]; // unset old en passant
+            enPassantable = EMPTY;
         }
         zobristKey ^= Zobrist.activeColor;
+        activeColor = Piece.getOpposite(activeColor);
+        invalidateInfo();
+    }
+
+    public void unmakeNullMove() {
+        ply--;
+        enPassantable = undoEnPassant[ply];
+        halfMoves = undoHalfMoves[ply];
+        nullMovePly = undoNullMovePly[ply];
+        zobristKey = undoKeys[ply];
+        activeColor = Piece.getOpposite(activeColor);
+        invalidateInfo();
+    }
+
+    // the undo stack holds the key of every earlier position on this board, game moves and search moves alike.
+    // Only positions with the same side to move since the last capture or pawn move can repeat this one.
+    public boolean isRepetition() {
+        int stop = Math.max(nullMovePly, ply - halfMoves);
+        for (int i = ply - 4; i >= stop; i -= 2) {
+            if (undoKeys[i] == zobristKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isFiftyMoveDraw() {
+        return halfMoves >= 100;
+    }
+
+    // true if the color has anything besides its king and pawns
+    public boolean hasPieces(int color) {
+        long[] own = bitboards[color];
+        return (own[Piece.KNIGHT] | own[Piece.BISHOP] | own[Piece.ROOK] | own[Piece.QUEEN]) != 0;
+    }
+
+    private void growUndoStack() {
+        int size = undoKeys.length * 2;
+        undoCaptured = Arrays.copyOf(undoCaptured, size);
+        undoEnPassant = Arrays.copyOf(undoEnPassant, size);
+        undoHalfMoves = Arrays.copyOf(undoHalfMoves, size);
+        undoNullMovePly = Arrays.copyOf(undoNullMovePly, size);
+        undoCastleRights = Arrays.copyOf(undoCastleRights, size);
+        undoKeys = Arrays.copyOf(undoKeys, size);
     }
 
     public static String coorConvert(int index) {
@@ -469,12 +719,7 @@ public class Board {
     }
 
     public int getKingInd(int color) {
-        for (int i = 0; i < pieceCounts[color]; i++) {
-            if (Piece.getType(board[pieces[color][i]]) == Piece.KING) {
-                return pieces[color][i];
-            }
-        }
-        return EMPTY;
+        return kingSquares[color];
     }
 
     public String toString() {
@@ -502,22 +747,21 @@ public class Board {
         }
         fen.append(" ");
         fen.append(activeColor == Piece.WHITE ? "w " : "b ");
-        int castleRights = getCastleRights();
         if (castleRights == 0) {
             fen.append("-");
         } else {
-            if ((castleRights & 0b1000) != 0) {
-                fen.append("Q");
-            }
-            if ((castleRights & 0b0100) != 0) {
+            if ((castleRights & WHITE_KINGSIDE) != 0) {
                 fen.append("K");
             }
-            if ((castleRights & 0b0010) != 0) {
-                fen.append("q");
+            if ((castleRights & WHITE_QUEENSIDE) != 0) {
+                fen.append("Q");
             }
-            if ((castleRights & 0b0001) != 0) {
+            if ((castleRights & BLACK_KINGSIDE) != 0) {
                 fen.append("k");
             }
+            if ((castleRights & BLACK_QUEENSIDE) != 0) {
+                fen.append("q");
+            }
         }
         fen.append(" ");
         if (enPassantable == EMPTY) {
@@ -528,22 +772,7 @@ public class Board {
         return fen.toString();
     }
 
-    public int getCastleRights() {
-        int whiteInd = activeColor == Piece.WHITE ? kingInd : getKingInd(Piece.getOpposite(activeColor));
-        int blackInd = activeColor == Piece.BLACK ? kingInd : getKingInd(Piece.getOpposite(activeColor));
-        int castleRights = 0;
-        castleRights |= MoveGenerator.canCastle(whiteInd, -2, this) != -1 ? 1 << 3 : 0;
-        castleRights |= MoveGenerator.canCastle(whiteInd, 2, this) != -1 ? 1 << 2 : 0;
-        castleRights |= MoveGenerator.canCastle(blackInd, -2, this) != -1 ? 1 << 1 : 0;
-        castleRights |= MoveGenerator.canCastle(blackInd, 2, this) != -1 ? 1 : 0;
-        return castleRights;
-    }
-
     public int getBasicMaterialScore(int color) {
-        int total = 0;
-        for (int i = 0; i < pieceCounts[color]; i++) {
-            total += Piece.getWeight(board[pieces[color][i]] & 0b111);
-        }
-        return total;
+        return materials[color];
     }
 }
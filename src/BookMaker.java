@@ -84,7 +84,7 @@ public class BookMaker {
     public static Move getMove(String al, Board board) {
         al = al.replaceAll("[+#x-]", "");
         Move move = null;
-        for (Move testMove : board.moves) {
+        for (Move testMove : board.getMoves()) {
             move = testMove;
             int type = Piece.getType(move.actor);
             int color = Piece.getColor(move.actor);
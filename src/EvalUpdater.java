@@ -16,7 +16,7 @@ public class EvalUpdater implements Runnable {
             Main.gameWindow.gameView.assistSquares.add(Main.suggestedMove.start);
             Main.gameWindow.gameView.assistSquares.add(Main.suggestedMove.end);
         }
-        double eval = ((ScottAgent)evaluator).bestScore * (game.board.activeColor == Piece.WHITE ? 1 : -1);
-        Main.eval = String.format("Eval: %.2f", eval);
+        int eval = ((ScottAgent)evaluator).bestScore * (game.board.activeColor == Piece.WHITE ? 1 : -1);
+        Main.eval = "Eval: " + eval;
     }
 }
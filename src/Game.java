@@ -6,11 +6,10 @@ public class Game {
 
     Board board;
     long blackMillis, whiteMillis, blackAdd, whiteAdd, turnStart;
-    int halfMoves, fullMoves;
+    int fullMoves;
     GameState gameState;
     ArrayList<Move> moveHistory;
     Stack<Long> repeatHistory;
-    Stack<Integer> halfMoveHistory;
 
     public Game() {
         this(Board.DEFAULT_FEN, Game.DEFAULT_TIME);
@@ -19,12 +18,10 @@ public class Game {
     public Game(String fen, String timeFormat) {
         moveHistory = new ArrayList<>();
         repeatHistory = new Stack<>();
-        halfMoveHistory = new Stack<>();
         try {
             board = new Board(fen, this);
             repeatHistory.push(board.zobristKey);
             String[] fields = fen.split(" ");
-            halfMoves = Integer.parseInt(fields[4]);
             fullMoves = Integer.parseInt(fields[5]);
         } catch (Exception e) {
             System.out.println("Error in FEN String: ");
@@ -49,13 +46,11 @@ public class Game {
     public Game(Game game) {
         this.board = new Board(game.board);
         this.board.game = this;
-        board.updateInfo();
         this.blackMillis = game.blackMillis;
         this.whiteMillis = game.whiteMillis;
         this.blackAdd = game.blackAdd;
         this.whiteAdd = game.whiteAdd;
         this.turnStart = game.turnStart;
-        this.halfMoves = game.halfMoves;
         this.fullMoves = game.fullMoves;
         this.gameState = game.gameState;
         this.moveHistory = new ArrayList<>(game.moveHistory.size());
@@ -64,8 +59,6 @@ public class Game {
         }
         this.repeatHistory = new Stack<>();
         this.repeatHistory.addAll(game.repeatHistory);
-        halfMoveHistory = new Stack<>();
-        this.halfMoveHistory.addAll(game.halfMoveHistory);
     }
 
     public int getMaterialScore() {
@@ -82,37 +75,30 @@ public class Game {
 
     public void makeMove(Move move) {
         if (move != null) {
-            if (Piece.getType(move.actor) == Piece.PAWN || move.isCapture()) {
-                halfMoves = 0;
-                repeatHistory.clear();
-            } else {
-                halfMoves++;
-            }
-            if (board.activeColor == Piece.BLACK) {
-                fullMoves++;
-                blackMillis += blackAdd - (System.currentTimeMillis() - turnStart);
-            } else {
-                whiteMillis += whiteAdd - (System.currentTimeMillis() - turnStart);
-            }
-            board.makeMove(move);
+            makeMove(move.toInt());
             moveHistory.add(move);
-            checkSetEndState();
-            turnStart = System.currentTimeMillis();
         }
     }
 
-    public boolean hasBeenSeen(long key) {
-        // enhanced for can cause concurrent mod error
-        for (int i = 0; i < repeatHistory.size(); i++) {
-            if (repeatHistory.get(i) == key) {
-                return true;
-            }
+    // plays a game move with its clock, repetition and end state bookkeeping, without recording it in moveHistory
+    public void makeMove(int move) {
+        if (Piece.getType(Move.getActor(move)) == Piece.PAWN || Move.isCapture(move)) {
+            repeatHistory.clear();
+        }
+        if (board.activeColor == Piece.BLACK) {
+            fullMoves++;
+            blackMillis += blackAdd - (System.currentTimeMillis() - turnStart);
+        } else {
+            whiteMillis += whiteAdd - (System.currentTimeMillis() - turnStart);
         }
-        return false;
+        board.makeMove(move);
+        repeatHistory.push(board.zobristKey);
+        checkSetEndState();
+        turnStart = System.currentTimeMillis();
     }
 
     public void checkSetEndState() {
-        if (halfMoves >= 100) {
+        if (board.halfMoves >= 100) {
             gameState = GameState.DRAW;
             return;
         }
@@ -134,7 +120,7 @@ public class Game {
     }
 
     public ArrayList<Move> getMoves() {
-        return board.moves;
+        return board.getMoves();
     }
 
     public void setWinner(int color) {
@@ -158,11 +144,18 @@ public class Game {
 
     // Not a perfect reset
     public void unmakeMove(Move move) {
-        if (Piece.getColor(move.actor) == Piece.BLACK) {
+        unmakeMove(move.toInt());
+        moveHistory.remove(moveHistory.size() - 1);
+    }
+
+    public void unmakeMove(int move) {
+        if (Piece.getColor(Move.getActor(move)) == Piece.BLACK) {
             fullMoves--;
         }
         board.unmakeMove(move);
-        moveHistory.remove(moveHistory.size() - 1);
+        if (repeatHistory.size() > 0) {
+            repeatHistory.pop();
+        }
     }
 
     public long getRemainingMillis(int color) {
@@ -195,7 +188,7 @@ public class Game {
     }
 
     public String toFEN() {
-        return board.toString() + " " +  halfMoves + " " + fullMoves;
+        return board.toString() + " " +  board.halfMoves + " " + fullMoves;
     }
 
     public String toString() {
@@ -122,7 +122,7 @@ class GameView extends JPanel implements ActionListener {
                     if (!(Main.agent1 != null && Main.agent1.color == game.getActiveColor()) && !(Main.agent2 != null && Main.agent2.color == game.getActiveColor())) {
                         selectedSquare = clicked;
                         options.clear();
-                        for (Move move : game.board.moves) {
+                        for (Move move : game.board.getMoves()) {
                             if (move.start == selectedSquare) {
                                 options.add(move);
                             }
@@ -330,17 +330,17 @@ class GameView extends JPanel implements ActionListener {
             for (int i = 0; i < 64; i++) {
                 int row = i / 8;
                 int col = i - row * 8;
-                if (game.board.threatening[i]) {
+                if (game.board.isThreatened(i)) {
                     g.setColor(BLUE);
                     Graphics2D g2d = (Graphics2D) g;
                     g2d.setStroke(new BasicStroke(4));
                     g2d.fillRect(margins + col * squareWidth, margins + row * squareWidth, squareWidth, squareWidth);
                 }
-                if (game.board.pins[i]) {
+                if (game.board.isPinned(i)) {
                     g.setColor(new Color(0xef6c00));
                     g.fillRect(margins + col * squareWidth, margins + row * squareWidth, squareWidth, squareWidth);
                 }
-                if (game.board.checkPath[i]) {
+                if (game.board.isOnCheckPath(i)) {
                     g.setColor(YELLOW);
                     g.fillRect(margins + col * squareWidth, margins + row * squareWidth, squareWidth, squareWidth);
                 }
@@ -391,7 +391,7 @@ class GameView extends JPanel implements ActionListener {
             int piece = game.board.board[selectedSquare];
             if (piece != -1) {
                 if (options.size() == 0) {
-                    for (Move move : game.board.moves) {
+                    for (Move move : game.board.getMoves()) {
                         if (move.start == selectedSquare) {
                             options.add(move);
                         }
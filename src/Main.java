@@ -1,4 +1,5 @@
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Stack;
 
@@ -25,6 +26,10 @@ public class Main {
         if (args.length == 0) {
             args = new String[]{"-agent2", "ScottAgent", "-delay", "1"};
         }
+        if (args[0].equals("-perft")) {
+            Perft.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
         PrecomputedMoveData.calculate();
 
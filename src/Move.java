@@ -6,38 +6,39 @@ public class Move implements Comparable<Move> {
     int captured;
     int type;
     int promoteTo;
-    boolean firstMove;
-    double score;
+    int score;
     String algebraic;
 
     public static final int CASTLE = 1;
     public static final int PROMOTION = 2;
     public static final int EN_PASSANT = 3;
 
+    // moves are packed into an int as type | promoteTo << 4 | start << 8 | end << 14 | actor << 20 | captured << 24
+    public static final int NONE = 0;
+    static final int MASK = 0b1111;
+    static final int SQ_MASK = 0b111111;
+
     public Move() {}
 
     public Move(int move) {
-        int mask = 0b1111;
-        int sqMask = 0b111111;
-        type = move & mask;
-        promoteTo = (move >> 4) & mask;
-        start = (move >> 8) & sqMask;
-        end = (move >> 14) & sqMask;
-        actor = (move >> 20) & mask;
-        captured = (move >> 24) & mask;
-        firstMove = ((move >> 28) & mask) == 1;
+        type = getType(move);
+        promoteTo = getPromoteTo(move);
+        start = getStart(move);
+        end = getEnd(move);
+        actor = getActor(move);
+        captured = getCaptured(move);
 
-        if (captured == 0b1111) {
-            captured = -1;
+        if (type == CASTLE) {
+            // if a castle, captured represents index of rook
+            captured = getCastleRook(start, end);
         }
     }
 
-    public Move(int actor, int captured, int start, int end, Board board) {
+    public Move(int actor, int captured, int start, int end) {
         this.actor = actor;
         this.captured = captured;
         this.start = start;
         this.end = end;
-        this.firstMove = !board.hasMoved[start];
     }
 
     public Move(Move from) {
@@ -47,7 +48,6 @@ public class Move implements Comparable<Move> {
         this.captured = from.captured;
         this.type = from.type;
         this.promoteTo = from.promoteTo;
-        this.firstMove = from.firstMove;
         this.score = from.score;
     }
 
@@ -87,7 +87,7 @@ public class Move implements Comparable<Move> {
 
         // check if ambiguous
         if (actorType != Piece.PAWN && actorType != Piece.KING) {
-            for (Move move : board.moves) {
+            for (Move move : board.getMoves()) {
                 if (move.start != this.start && move.end == this.end) {
                     if (Piece.getType(move.actor) == actorType) {
                         int startRow = this.start / 8;
@@ -137,7 +137,7 @@ public class Move implements Comparable<Move> {
     }
 
     public int compareTo(Move move) {
-        return (int)(move.score - this.score);
+        return Integer.compare(move.score, this.score);
     }
 
     public boolean equals(Object other) {
@@ -148,23 +148,111 @@ public class Move implements Comparable<Move> {
             return false;
         }
 
-        return move.type == this.type && move.promoteTo == this.promoteTo && move.start == this.start && move.end == this.end && move.actor == this.actor && move.captured == this.captured && move.firstMove == this.firstMove;
+        return move.type == this.type && move.promoteTo == this.promoteTo && move.start == this.start && move.end == this.end && move.actor == this.actor && move.captured == this.captured;
     }
 
     public int hashCode() {
+        return toInt();
+    }
+
+    public int toInt() {
+        return encode(type, promoteTo, start, end, actor, type == CASTLE ? Board.EMPTY : captured);
+    }
+
+    public static int encode(int type, int promoteTo, int start, int end, int actor, int captured) {
         int captureHash = captured;
         if (captured == -1) {
             captureHash = 0b1111;
         }
 
-        int hash = 0;
-        hash |= type;
-        hash |= promoteTo << 4;
-        hash |= start << 8;
-        hash |= end << 14;
-        hash |= actor << 20;
-        hash |= captureHash << 24;
-        hash |= (firstMove ? 1 : 0) << 28;
-        return hash;
+        int move = 0;
+        move |= type;
+        move |= promoteTo << 4;
+        move |= start << 8;
+        move |= end << 14;
+        move |= actor << 20;
+        move |= captureHash << 24;
+        return move;
+    }
+
+    public static int getType(int move) {
+        return move & MASK;
+    }
+
+    public static int getPromoteTo(int move) {
+        return (move >> 4) & MASK;
+    }
+
+    public static int getStart(int move) {
+        return (move >> 8) & SQ_MASK;
+    }
+
+    public static int getEnd(int move) {
+        return (move >> 14) & SQ_MASK;
+    }
+
+    public static int getActor(int move) {
+        return (move >> 20) & MASK;
+    }
+
+    public static int getCaptured(int move) {
+        int captured = (move >> 24) & MASK;
+        return captured == 0b1111 ? Board.EMPTY : captured;
+    }
+
+    public static boolean isCapture(int move) {
+        return ((move >> 24) & MASK) != 0b1111;
+    }
+
+    // castles do not store the rook, it is always in the corner on the side the king moves to
+    public static int getCastleRook(int start, int end) {
+        return end > start ? start + 3 : start - 4;
+    }
+
+    // the 16 bit form keeps start | end << 6 | promoted type << 12, everything else is read back off the board
+    public static int toCompact(int move) {
+        int compact = getStart(move) | getEnd(move) << 6;
+        if (getType(move) == PROMOTION) {
+            compact |= Piece.getType(getPromoteTo(move)) << 12;
+        }
+        return compact;
+    }
+
+    // assumes the board is in the position the compact move was made from, callers still need to check legality
+    public static int fromCompact(int compact, Board board) {
+        if (compact == NONE) {
+            return NONE;
+        }
+        int start = compact & SQ_MASK;
+        int end = (compact >> 6) & SQ_MASK;
+        int promoteType = compact >> 12;
+        int actor = board.board[start];
+        if (actor == Board.EMPTY) {
+            return NONE;
+        }
+        int actorType = Piece.getType(actor);
+        if (promoteType != 0) {
+            return encode(PROMOTION, Piece.getColor(actor) << 3 | promoteType, start, end, actor, board.board[end]);
+        }
+        if (actorType == Piece.KING && Math.abs(end - start) == 2) {
+            return encode(CASTLE, 0, start, end, actor, Board.EMPTY);
+        }
+        if (actorType == Piece.PAWN && end == board.enPassantable && (end - start) % 8 != 0) {
+            return encode(EN_PASSANT, 0, start, end, actor, board.board[(start / 8) * 8 + end % 8]);
+        }
+        return encode(0, 0, start, end, actor, board.board[end]);
+    }
+
+    // long algebraic like e2e4 or e7e8q, the same for both colors
+    public static String toCoordinates(int move) {
+        String coordinates = Board.coorConvert(getStart(move)) + Board.coorConvert(getEnd(move));
+        if (getType(move) == PROMOTION) {
+            coordinates += "pnbrqk".charAt(Piece.getType(getPromoteTo(move)));
+        }
+        return coordinates;
+    }
+
+    public static String toString(int move) {
+        return move == NONE ? "" : new Move(move).toString();
     }
 }
@@ -4,101 +4,120 @@ import java.util.ArrayList;
 
 public class MoveGenerator {
     public static final int[] CASTLE_DIRECTIONS = new int[]{-2, 2};
-    public static final int[] ALL_OFFSETS = new int[]{8, -8, -1, 1, 7, -7, 9, -9};
-    public static final int[][] PAWN_ATTACKS = new int[][]{new int[]{7, 5}, new int[]{4, 6}};
     public static final int[] PROMOTE_OPTIONS = new int[]{Piece.KNIGHT, Piece.QUEEN, Piece.ROOK, Piece.BISHOP};
+    public static final int MAX_MOVES = 256;
+    public static final int GEN_ALL = 0, GEN_CAPTURES = 1, GEN_QUIETS = 2; // captures stage includes promotions
     Board board;
-    boolean onlyThreats, inCheck;
-
-    public ArrayList<Move> generateThreats(Board b) {
-        return generateMoves(b, Piece.getOpposite(b.activeColor));
-    }
+    boolean inCheck;
+    int color, stage;
+    int[] moves; // buffer being filled by the current generation
+    int moveCount;
+    int[] scratch = new int[MAX_MOVES];
 
     public ArrayList<Move> generateMoves(Board b) {
-        return generateMoves(b, b.activeColor);
+        int[] buffer = new int[MAX_MOVES];
+        int count = generateMoves(b, buffer, GEN_ALL);
+        ArrayList<Move> moves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            moves.add(new Move(buffer[i]));
+        }
+        return moves;
     }
 
-    public ArrayList<Move> generateMoves(Board b, int color) {
-        onlyThreats = b.activeColor != color;
-        inCheck = b.isChecked();
-        board = b;
-        ArrayList<Move> moves = new ArrayList<>(64);
+    // fills the buffer with the legal moves of the given stage and returns how many were added
+    public int generateMoves(Board b, int[] buffer, int stage) {
+        return generateMoves(b, buffer, stage, ~0L);
+    }
 
-        if (!onlyThreats) {
-            addKingMoves(board.kingInd, moves);
-        }
-        if (board.multiCheck && !onlyThreats) {
-            return moves;
+    // tests a move from somewhere else, like the transposition table, by generating moves for its piece only
+    public boolean isLegal(Board b, int move) {
+        int start = Move.getStart(move);
+        if (move == Move.NONE || b.board[start] != Move.getActor(move) || Piece.getColor(b.board[start]) != b.activeColor) {
+            return false;
         }
-
-        for (int i = 0; i < board.pieceCounts[color]; i++) {
-            int ind = board.pieces[color][i];
-            int type = Piece.getType(board.board[ind]);
-            switch(type) {
-                case Piece.ROOK: addSlideMoves(ind, moves, 0, 4); break;
-                case Piece.BISHOP: addSlideMoves(ind, moves, 4, 8); break;
-                case Piece.QUEEN: addSlideMoves(ind, moves, 0, 8); break;
-                case Piece.KNIGHT:
-                    if (!onlyThreats) {
-                        addKnightMoves(ind, moves);
-                    }
-                    break;
-                case Piece.PAWN:
-                    if (!onlyThreats) {
-                        addPawnMoves(ind, moves);
-                    }
-                    break;
+        int count = generateMoves(b, scratch, GEN_ALL, 1L << start);
+        for (int i = 0; i < count; i++) {
+            if (scratch[i] == move) {
+                return true;
             }
         }
-        return moves;
+        return false;
     }
 
-    public void addKingMoves(int start, ArrayList<Move> moves) {
-        int color = Piece.getColor(board.board[start]);
-        for (int i = 0; i < PrecomputedMoveData.kingMoves[start].length; i++) {
-            int currInd = PrecomputedMoveData.kingMoves[start][i];
-            int currPiece = board.board[currInd];
-            int currColor = Piece.getColor(currPiece);
+    private int generateMoves(Board b, int[] buffer, int stage, long from) {
+        color = b.activeColor;
+        inCheck = b.isChecked();
+        board = b;
+        moves = buffer;
+        moveCount = 0;
+        this.stage = stage;
+
+        // captures stage only lands on enemy pieces, quiets stage only on empty squares
+        long targets = ~board.colorBitboards[color];
+        if (stage == GEN_CAPTURES) {
+            targets = board.colorBitboards[Piece.getOpposite(color)];
+        } else if (stage == GEN_QUIETS) {
+            targets = ~board.occupied;
+        }
+
+        if (board.kingInd != Board.EMPTY && (from & 1L << board.kingInd) != 0) {
+            addKingMoves(board.kingInd, targets);
+        }
+        if (board.multiCheck) {
+            return moveCount;
+        }
+
+        // every non king move also has to resolve check if there is one
+        targets &= board.checkMask;
+        long[] own = board.bitboards[color];
+        long pieces = own[Piece.KNIGHT] & ~board.pinned & from;
+        while (pieces != 0) {
+            int ind = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            addMoves(ind, PrecomputedMoveData.knightAttacks[ind] & targets);
+        }
+        pieces = (own[Piece.ROOK] | own[Piece.QUEEN]) & from;
+        while (pieces != 0) {
+            int ind = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            addMoves(ind, PrecomputedMoveData.rookAttacks(ind, board.occupied) & targets);
+        }
+        pieces = (own[Piece.BISHOP] | own[Piece.QUEEN]) & from;
+        while (pieces != 0) {
+            int ind = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            addMoves(ind, PrecomputedMoveData.bishopAttacks(ind, board.occupied) & targets);
+        }
+        pieces = own[Piece.PAWN] & from;
+        while (pieces != 0) {
+            int ind = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            addPawnMoves(ind, board.checkMask);
+        }
+        return moveCount;
+    }
 
-            if (currColor == color) {
-                if (onlyThreats) {
-                    moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                }
-                continue;
-            }
+    public void addKingMoves(int start, long targets) {
+        addMoves(start, PrecomputedMoveData.kingAttacks[start] & targets & ~board.threats);
 
-            boolean isCapture = color != currColor;
-            if (!isCapture) {
-                if (!onlyThreats && blocksCheck(currInd)) {
-                    continue;
-                }
-            }
-
-            if (onlyThreats || !board.threatening[currInd]) {
-                int oppositeInd = start - (currInd - start);
-                if (oppositeInd >= 0 && oppositeInd <= 63) {
-                    if (!board.checkPath[oppositeInd] || Piece.getType(board.board[oppositeInd]) == Piece.PAWN) {
-                        moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                    }
-                } else {
-                    moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                }
-            }
-        }
-        if (!inCheck) {
+        if (!inCheck && stage != GEN_CAPTURES) {
             for (int direction : CASTLE_DIRECTIONS) {
-                int canCastle = canCastle(start, direction, board);
-                if (!onlyThreats && canCastle != -1) {
-                    Move move = new Move(board.board[start], canCastle, start, start + direction, board);
-                    move.type = Move.CASTLE;
-                    moves.add(move);
+                if (canCastle(start, direction, board) != -1) {
+                    addMove(Move.CASTLE, 0, start, start + direction, Board.EMPTY);
                 }
             }
         }
     }
 
     public static int canCastle(int start, int direction, Board board) {
-        if ((start != 4 && start != 60) || board.hasMoved[start] || Piece.getType(board.board[start]) != Piece.KING) {
+        int color = Piece.getColor(board.board[start]);
+        int right;
+        if (color == Piece.WHITE) {
+            right = direction > 0 ? Board.WHITE_KINGSIDE : Board.WHITE_QUEENSIDE;
+        } else {
+            right = direction > 0 ? Board.BLACK_KINGSIDE : Board.BLACK_QUEENSIDE;
+        }
+        if ((board.castleRights & right) == 0) {
             return -1;
         }
         int row = start / 8;
@@ -108,216 +127,100 @@ public class MoveGenerator {
         }
         int ind = row * 8 + col;
 
-        if (board.board[ind] != Board.EMPTY) {
-            int rook = board.board[ind];
-            if (Piece.getType(rook) == Piece.ROOK && !board.hasMoved[ind]) {
-                int offset = direction > 0 ? 1 : -1;
-                int testInd = start + offset;
-                while (testInd != ind) {
-                    if (board.board[testInd] != Board.EMPTY || board.threatening[testInd]) {
-                        return -1;
-                    }
-                    testInd += offset;
-                }
-                return ind;
-            }
+        // rights are lost as soon as the king or rook leaves its square, so only the path needs checking
+        int end = start + direction;
+        long kingPath = PrecomputedMoveData.between[start][end] | 1L << end;
+        if ((PrecomputedMoveData.between[start][ind] & board.occupied) == 0 && (kingPath & board.threats) == 0) {
+            return ind;
         }
         return -1;
     }
 
-    public void addSlideMoves(int start, ArrayList<Move> moves, int startOffInd, int endOffInd) {
-        boolean isPinned = board.pins[start];
-        int color = Piece.getColor(board.board[start]);
-
-        // cannot possibly have valid moves
-        if (!onlyThreats && board.singleCheck && isPinned) {
-            return;
-        }
-
-        for (int offInd = startOffInd; offInd < endOffInd; offInd++) {
-            int offset = ALL_OFFSETS[offInd];
-
-            if (isPinned && !movingAlongRay(offset, board.kingInd, start)) {
-                if (!onlyThreats) {
-                    continue;
-                }
-            }
-
-            for (int i = 0; i < PrecomputedMoveData.distToEdge[start][offInd]; i++) {
-                int currInd = start + offset * (i + 1);
-                int currPiece = board.board[currInd];
-                int currColor = Piece.getColor(currPiece);
-
-                if (color == currColor) {
-                    if (onlyThreats) {
-                        moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                    }
-                    break;
-                }
-                boolean isCapture = currPiece != Board.EMPTY;
-                boolean blocksCheck = blocksCheck(currInd);
-                if (blocksCheck || !inCheck) {
-                    moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                }
-
-                // if not empty or a move blocks check, it is not possible to continue
-                if (isCapture || blocksCheck) {
-                    if (onlyThreats) {
-                        moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                    }
-                    break;
-                }
-            }
-        }
-    }
-
-    public void addKnightMoves(int start, ArrayList<Move> moves) {
-        int color = Piece.getColor(board.board[start]);
-        if (!onlyThreats && board.pins[start]) {
-            return;
+    // adds a move to each target, keeping pinned pieces on the line through their king
+    public void addMoves(int start, long targets) {
+        if ((board.pinned & 1L << start) != 0) {
+            targets &= PrecomputedMoveData.lines[board.kingInd][start];
         }
-
-        for (int i = 0; i < PrecomputedMoveData.knightMoves[start].length; i++) {
-            int currInd = PrecomputedMoveData.knightMoves[start][i];
-            int currPiece = board.board[currInd];
-            int currColor = Piece.getColor(currPiece);
-
-            boolean isCapture = currColor == Piece.getOpposite(color);
-            if (!onlyThreats && (inCheck && !blocksCheck(currInd))) {
-                continue;
-            }
-            if (isCapture) {
-                moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-            } else if (onlyThreats || currColor == -1) {
-                moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-            }
+        while (targets != 0) {
+            int end = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            addMove(0, 0, start, end, board.board[end]);
         }
     }
 
-    public void addPawnMoves(int start, ArrayList<Move> moves) {
-        int color = Piece.getColor(board.board[start]);
+    // targets only restricts where the pawn may land, the stage decides which kinds of moves are added
+    public void addPawnMoves(int start, long targets) {
         int pawnOffset = color == Piece.WHITE ? -8 : 8;
-        int startRow = board.activeColor == Piece.BLACK ? 1 : 6;
-        int endRow = board.activeColor == Piece.BLACK ? 6 : 1;
+        int startRow = color == Piece.BLACK ? 1 : 6;
+        int endRow = color == Piece.BLACK ? 6 : 1;
         int row = start / 8;
+        boolean captures = stage != GEN_QUIETS;
+        boolean quiets = stage != GEN_CAPTURES;
+        if ((board.pinned & 1L << start) != 0) {
+            targets &= PrecomputedMoveData.lines[board.kingInd][start];
+        }
 
         // advancements
-        if (!onlyThreats) {
-            int oneAdvance = start + pawnOffset;
-            if (board.board[oneAdvance] == Board.EMPTY) {
-                if (!board.pins[start] || movingAlongRay(pawnOffset, start, board.kingInd)) {
-                    if (!inCheck || blocksCheck(oneAdvance)) {
-                        Move move = new Move(board.board[start], Board.EMPTY, start, oneAdvance, board);
-                        if (row == endRow) {
-                            addPromotions(move, moves);
-                        } else {
-                            moves.add(move);
-                        }
-                    }
-                    if (row == startRow) {
-                        int twoAdvance = oneAdvance + pawnOffset;
-                        if (board.board[twoAdvance] == Board.EMPTY) {
-                            if (!inCheck || blocksCheck(twoAdvance)) {
-                                moves.add(new Move(board.board[start], Board.EMPTY, start, twoAdvance, board));
-                            }
-                        }
+        int oneAdvance = start + pawnOffset;
+        if (board.board[oneAdvance] == Board.EMPTY) {
+            if ((targets & 1L << oneAdvance) != 0) {
+                if (row == endRow) {
+                    if (captures) {
+                        addPromotions(start, oneAdvance, Board.EMPTY);
                     }
+                } else if (quiets) {
+                    addMove(0, 0, start, oneAdvance, Board.EMPTY);
+                }
+            }
+            if (row == startRow && quiets) {
+                int twoAdvance = oneAdvance + pawnOffset;
+                if (board.board[twoAdvance] == Board.EMPTY && (targets & 1L << twoAdvance) != 0) {
+                    addMove(0, 0, start, twoAdvance, Board.EMPTY);
                 }
             }
         }
+        if (!captures) {
+            return;
+        }
 
         // captures
-        for (int i = 0; i < 2; i++) {
-            if (PrecomputedMoveData.distToEdge[start][PAWN_ATTACKS[color][i]] > 0) {
-                int offset = ALL_OFFSETS[PAWN_ATTACKS[color][i]];
-                int currInd = start + offset;
-                int currPiece = board.board[currInd];
-                int currColor = Piece.getColor(currPiece);
-
-                if (!onlyThreats && (board.pins[start] && !movingAlongRay(offset, board.kingInd, start))) {
-                    continue;
-                }
-
-                if (onlyThreats) {
-                    moves.add(new Move(board.board[start], currPiece, start, currInd, board));
-                } else if (Piece.getOpposite(color) == currColor) {
-                    if (inCheck && !blocksCheck(currInd)) {
-                        continue;
-                    }
-                    Move move = new Move(board.board[start], currPiece, start, currInd, board);
-                    if (row == endRow) {
-                        addPromotions(move, moves);
-                    } else {
-                        moves.add(move);
-                    }
-                }
-
-                if (currInd == board.enPassantable && !(inCheck && !blocksCheck(currInd))) {
-                    if (!enPassantRevealsCheck(start)) {
-                        int ind = (start / 8) * 8 + currInd % 8;
-                        Move move = new Move(board.board[start], board.board[ind], start, currInd, board);
-                        move.type = Move.EN_PASSANT;
-                        moves.add(move);
-                    }
-                }
+        long attacks = PrecomputedMoveData.pawnAttacks[color][start];
+        long captureTargets = attacks & board.colorBitboards[Piece.getOpposite(color)] & targets;
+        while (captureTargets != 0) {
+            int currInd = Long.numberOfTrailingZeros(captureTargets);
+            captureTargets &= captureTargets - 1;
+            if (row == endRow) {
+                addPromotions(start, currInd, board.board[currInd]);
+            } else {
+                addMove(0, 0, start, currInd, board.board[currInd]);
             }
         }
-    }
 
-    public boolean enPassantRevealsCheck(int start) {
-        int color = Piece.getColor(board.board[start]);
-        int startRow = start / 8;
-        int startCol = start % 8;
-        int[] offsets = new int[]{-1, 1};
-        for (int offset : offsets) {
-            boolean hasKing = false, hasThreat = false;
-            for (int i = 1; i < 8; i++) {
-                int threatCol = startCol + i * offset;
-                int kingCol = startCol + i * -offset;
-                if (threatCol >= 0 && threatCol <= 7) {
-                    int ind = startRow * 8 + threatCol;
-                    if (board.board[ind] != Board.EMPTY) {
-                        int currColor = Piece.getColor(board.board[ind]);
-                        int type = Piece.getType(board.board[ind]);
-                        if ((currColor != color) && type == Piece.ROOK || type == Piece.QUEEN) {
-                            hasThreat = true;
-                        }
-                    }
-                }
-                if (kingCol >= 0 && kingCol <= 7) {
-                    int ind = startRow * 8 + kingCol;
-                    if (board.board[ind] != Board.EMPTY) {
-                        int currColor = Piece.getColor(board.board[ind]);
-                        int type = Piece.getType(board.board[ind]);
-                        if ((currColor == color) && type == Piece.KING) {
-                            hasKing = true;
-                        }
-                    }
-                }
-            }
-            if (hasKing && hasThreat) {
-                return true;
+        if (board.enPassantable != Board.EMPTY && (attacks & 1L << board.enPassantable) != 0) {
+            int ind = row * 8 + board.enPassantable % 8;
+            if (!enPassantRevealsCheck(start, ind)) {
+                addMove(Move.EN_PASSANT, 0, start, board.enPassantable, board.board[ind]);
             }
         }
-        return false;
     }
 
-    public void addPromotions(Move move, ArrayList<Move> moves) {
-        int color = Piece.getColor(move.actor);
-        for (int type : PROMOTE_OPTIONS) {
-            Move newMove = new Move(move.actor, move.captured, move.start, move.end, board);
-            newMove.promoteTo = color << 3 | type;
-            newMove.type = Move.PROMOTION;
-            moves.add(newMove);
+    // en passant moves two pieces at once, so test the resulting occupancy directly
+    public boolean enPassantRevealsCheck(int start, int capturedInd) {
+        if (board.kingInd == Board.EMPTY) {
+            return false;
         }
+        long blockers = board.occupied ^ (1L << start | 1L << capturedInd | 1L << board.enPassantable);
+        long attackers = board.getAttackers(board.kingInd, Piece.getOpposite(color), blockers);
+        return (attackers & ~(1L << capturedInd)) != 0;
     }
 
-    public boolean movingAlongRay(int offset, int start, int end) {
-        int dir = PrecomputedMoveData.directionLookup[end - start + 63];
-        return (dir == offset || -dir == offset);
+    public void addPromotions(int start, int end, int captured) {
+        for (int type : PROMOTE_OPTIONS) {
+            addMove(Move.PROMOTION, color << 3 | type, start, end, captured);
+        }
     }
 
-    public boolean blocksCheck(int ind) {
-        return inCheck && board.checkPath[ind];
+    public void addMove(int type, int promoteTo, int start, int end, int captured) {
+        moves[moveCount++] = Move.encode(type, promoteTo, start, end, board.board[start], captured);
     }
 }
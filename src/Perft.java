@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Counts the leaf nodes of the legal move tree to a fixed depth, both to check move generation against
+// known totals and to measure how fast it is. https://www.chessprogramming.org/Perft
+public class Perft {
+    static final long DEPTH_SALT = 0x9E3779B97F4A7C15L;
+
+    Board board;
+    int[][] moveBuffers;
+    // optional table of subtree counts, entries store key ^ count so torn writes from other threads are rejected
+    long[] hashKeys, hashCounts;
+    int hashMask;
+
+    public Perft(Board board) {
+        this(board, 0);
+    }
+
+    // hashMb of 0 disables the perft hash
+    public Perft(Board board, int hashMb) {
+        this.board = new Board(board);
+        this.board.game = null;
+        if (hashMb > 0) {
+            int size = (int)Long.highestOneBit(Math.min(hashMb * 1024L * 1024L / 16, 1 << 30)); // java arrays stop short of 2^31
+            hashKeys = new long[size];
+            hashCounts = new long[size];
+            hashMask = size - 1;
+        }
+    }
+
+    private Perft(Board board, long[] hashKeys, long[] hashCounts) {
+        this.board = new Board(board);
+        this.board.game = null;
+        this.hashKeys = hashKeys;
+        this.hashCounts = hashCounts;
+        this.hashMask = hashKeys == null ? 0 : hashKeys.length - 1;
+    }
+
+    public long perft(int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        moveBuffers = new int[depth][MoveGenerator.MAX_MOVES];
+        return count(depth, 0);
+    }
+
+    private long count(int depth, int ply) {
+        int[] moves = moveBuffers[ply];
+        int moveCount = board.generateMoves(moves);
+        // bulk counting, the last ply only needs the number of legal moves
+        if (depth == 1) {
+            return moveCount;
+        }
+
+        long hashKey = board.zobristKey ^ depth * DEPTH_SALT;
+        int index = (int)hashKey & hashMask;
+        if (hashKeys != null) {
+            long nodes = hashCounts[index];
+            if ((hashKeys[index] ^ nodes) == hashKey) {
+                return nodes;
+            }
+        }
+
+        long nodes = 0;
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            nodes += count(depth - 1, ply + 1);
+            board.unmakeMove(moves[i]);
+        }
+
+        if (hashKeys != null) {
+            hashKeys[index] = hashKey ^ nodes;
+            hashCounts[index] = nodes;
+        }
+        return nodes;
+    }
+
+    // counts the subtree under every root move, splitting the root moves across the pool when threads > 1.
+    // at depth 0 there are no root moves, only the position itself
+    public long[] divide(int depth, int[] rootMoves, int threads) {
+        if (depth == 0) {
+            return new long[]{1};
+        }
+        int moveCount = board.generateMoves(rootMoves);
+        long[] counts = new long[moveCount];
+        if (depth == 1) {
+            for (int i = 0; i < moveCount; i++) {
+                counts[i] = 1;
+            }
+            return counts;
+        }
+
+        ArrayList<RootTask> tasks = new ArrayList<>(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            tasks.add(new RootTask(rootMoves[i], depth - 1));
+        }
+        if (threads > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> RecursiveTask.invokeAll(tasks)).join();
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (RootTask task : tasks) {
+                task.invoke();
+            }
+        }
+        for (int i = 0; i < moveCount; i++) {
+            counts[i] = tasks.get(i).join();
+        }
+        return counts;
+    }
+
+    // each root move gets its own board copy, only the hash is shared
+    class RootTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        int move, depth;
+
+        RootTask(int move, int depth) {
+            this.move = move;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            Perft perft = new Perft(board, hashKeys, hashCounts);
+            perft.board.makeMove(move);
+            return perft.perft(depth);
+        }
+    }
+
+    // usage: Perft -depth 5 [-board "FEN"] [-divide true] [-hash mb] [-threads count]
+    public static void main(String[] args) {
+        String fen = Board.DEFAULT_FEN;
+        int depth = 5;
+        boolean showDivide = false;
+        int hashMb = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-board")) {
+                fen = args[i + 1];
+                i++;
+            } else if (arg.equals("-depth")) {
+                depth = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if (arg.equals("-divide")) {
+                showDivide = Boolean.parseBoolean(args[i + 1]);
+                i++;
+            } else if (arg.equals("-hash")) {
+                hashMb = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if (arg.equals("-threads")) {
+                threads = Integer.parseInt(args[i + 1]);
+                i++;
+            }
+        }
+
+        PrecomputedMoveData.calculate();
+        Perft perft = new Perft(new Board(fen, null), hashMb);
+        int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+
+        long start = System.nanoTime();
+        long[] counts = perft.divide(depth, rootMoves, threads);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            if (showDivide && depth > 0) {
+                System.out.println(Move.toCoordinates(rootMoves[i]) + ": " + counts[i]);
+            }
+        }
+        System.out.println("Depth " + depth + ": " + total + " nodes in " + elapsed / 1000000 + "ms, "
+                + total * 1000000000L / elapsed + " nps");
+    }
+}
@@ -135,6 +135,81 @@ public class Piece {
             -50,-30,-30,-30,-30,-30,-30,-50
     };
 
+    // endgame tables for the other pieces, derived from the ones above. Pawns gain more as they near promotion,
+    // pieces lose their opening squares and just want the centre, and rooks keep only the seventh rank
+    public static final int[] PAWN_WE = new int[]{
+            0,  0,  0,  0,  0,  0,  0,  0,
+            80, 80, 80, 80, 80, 80, 80, 80,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            30, 30, 30, 30, 30, 30, 30, 30,
+            15, 15, 15, 15, 15, 15, 15, 15,
+            5,  5,  5,  5,  5,  5,  5,  5,
+            0,  0,  0,  0,  0,  0,  0,  0,
+            0,  0,  0,  0,  0,  0,  0,  0
+    };
+
+    public static final int[] KNIGHT_WE = new int[]{
+            -50,-40,-30,-30,-30,-30,-40,-50,
+            -40,-20,-10, -5, -5,-10,-20,-40,
+            -30,-10,  5, 10, 10,  5,-10,-30,
+            -30, -5, 10, 15, 15, 10, -5,-30,
+            -30, -5, 10, 15, 15, 10, -5,-30,
+            -30,-10,  5, 10, 10,  5,-10,-30,
+            -40,-20,-10, -5, -5,-10,-20,-40,
+            -50,-40,-30,-30,-30,-30,-40,-50
+    };
+
+    public static final int[] BISHOP_WE = new int[]{
+            -20,-10,-10,-10,-10,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -20,-10,-10,-10,-10,-10,-10,-20
+    };
+
+    public static final int[] ROOK_WE = new int[]{
+            0,  0,  0,  0,  0,  0,  0,  0,
+            10, 10, 10, 10, 10, 10, 10, 10,
+            0,  0,  0,  0,  0,  0,  0,  0,
+            0,  0,  0,  0,  0,  0,  0,  0,
+            0,  0,  0,  0,  0,  0,  0,  0,
+            0,  0,  0,  0,  0,  0,  0,  0,
+            0,  0,  0,  0,  0,  0,  0,  0,
+            0,  0,  0,  0,  0,  0,  0,  0
+    };
+
+    public static final int[] QUEEN_WE = new int[]{
+            -20,-10,-10, -5, -5,-10,-10,-20,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+            -10,  5, 10, 10, 10, 10,  5,-10,
+            -5,  5, 10, 15, 15, 10,  5, -5,
+            -5,  5, 10, 15, 15, 10,  5, -5,
+            -10,  5, 10, 10, 10, 10,  5,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+            -20,-10,-10, -5, -5,-10,-10,-20
+    };
+
+    // material plus table value of each piece on each square, positive for white and negative for black,
+    // indexed by the piece's int value so the board can keep running sums as pieces come and go
+    public static final int[][] MIDGAME_SCORES = new int[16][64];
+    public static final int[][] ENDGAME_SCORES = new int[16][64];
+
+    static {
+        for (int color = WHITE; color <= BLACK; color++) {
+            for (int type = PAWN; type <= KING; type++) {
+                int piece = color << 3 | type;
+                int sign = color == WHITE ? 1 : -1;
+                for (int square = 0; square < 64; square++) {
+                    MIDGAME_SCORES[piece][square] = sign * getWeight(piece, square / 8, square % 8, false);
+                    ENDGAME_SCORES[piece][square] = sign * getWeight(piece, square / 8, square % 8, true);
+                }
+            }
+        }
+    }
+
     public static int getWeight(int piece, int row, int col, boolean isEndgame) {
         int type = Piece.getType(piece);
         int color = Piece.getColor(piece);
@@ -142,11 +217,11 @@ public class Piece {
         row = color == BLACK ? 7 - row : row;
         int index = row * 8 + col;
         switch (type) {
-            case PAWN: return weight + PAWN_W[index];
-            case BISHOP: return weight + BISHOP_W[index];
-            case KNIGHT: return weight + KNIGHT_W[index];
-            case ROOK: return weight + ROOK_W[index];
-            case QUEEN: return weight + QUEEN_W[index];
+            case PAWN: return weight + (isEndgame ? PAWN_WE[index] : PAWN_W[index]);
+            case BISHOP: return weight + (isEndgame ? BISHOP_WE[index] : BISHOP_W[index]);
+            case KNIGHT: return weight + (isEndgame ? KNIGHT_WE[index] : KNIGHT_W[index]);
+            case ROOK: return weight + (isEndgame ? ROOK_WE[index] : ROOK_W[index]);
+            case QUEEN: return weight + (isEndgame ? QUEEN_WE[index] : QUEEN_W[index]);
             case KING: return weight + (isEndgame ? KING_WE[index] : KING_WM[index]);
             default: return -1;
         }
@@ -1,25 +1,44 @@
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 // Translated from https://github.com/SebLague/Chess-AI/blob/main/Assets/Scripts/Core/PrecomputedMoveData.cs
+// Magic bitboards from https://www.chessprogramming.org/Magic_Bitboards
 
 public class PrecomputedMoveData {
     public static final int[] ALL_OFFSETS = new int[]{8, -8, -1, 1, 7, -7, 9, -9};
     public static final int[] KNIGHT_OFFSETS = new int[]{17, -17, 15, -15, 10, -10, 6, -6};
+    static final int MAGIC_SEED = 8675309;
 
     public static int[][] distToEdge; // distance to edge with offset at index
-    public static int[][] knightMoves; // valid next indices for a knight at index
-    public static int[][] kingMoves; // valid next indices for a king at index
-    public static int[][] whitePawnAttacks; // valid white pawn attack indices at index
-    public static int[][] blackPawnAttacks; // valid black pawn attack indices at index
-    public static int[] directionLookup;
+    public static long[] knightAttacks; // squares attacked by a knight at index
+    public static long[] kingAttacks; // squares attacked by a king at index
+    public static long[][] pawnAttacks; // squares attacked by a pawn of each color at index
+    public static long[][] between; // squares strictly between two aligned indices
+    public static long[][] lines; // full line through two aligned indices, 0 if not aligned
     public static int[] distToCenter;
     public static int[][] distBetween;
 
+    public static long[] rookMasks, bishopMasks; // relevant blocker squares for a slider at index
+    public static long[] rookMagics, bishopMagics;
+    public static int[] rookShifts, bishopShifts;
+    public static long[][] rookTable, bishopTable; // attack sets indexed by magic hash of blockers
+
+    public static long rookAttacks(int ind, long occupied) {
+        return rookTable[ind][(int)(((occupied & rookMasks[ind]) * rookMagics[ind]) >>> rookShifts[ind])];
+    }
+
+    public static long bishopAttacks(int ind, long occupied) {
+        return bishopTable[ind][(int)(((occupied & bishopMasks[ind]) * bishopMagics[ind]) >>> bishopShifts[ind])];
+    }
+
+    public static long queenAttacks(int ind, long occupied) {
+        return rookAttacks(ind, occupied) | bishopAttacks(ind, occupied);
+    }
+
     public static void calculate() {
-        whitePawnAttacks = new int[64][];
-        blackPawnAttacks = new int[64][];
-        knightMoves = new int[64][];
-        kingMoves = new int[64][];
+        pawnAttacks = new long[2][64];
+        knightAttacks = new long[64];
+        kingAttacks = new long[64];
         distToEdge = new int[64][];
 
         for (int ind = 0; ind < 64; ind++) {
@@ -40,7 +59,6 @@ public class PrecomputedMoveData {
             distToEdge[ind][6] = Math.min(south, west);
             distToEdge[ind][7] = Math.min(north, east);
 
-            ArrayList<Integer> validKnightJumps = new ArrayList<>();
             for (int offset : KNIGHT_OFFSETS) {
                 int newInd = ind + offset;
                 if (newInd >= 0 && newInd < 64) {
@@ -48,13 +66,11 @@ public class PrecomputedMoveData {
                     int newX = newInd - newY * 8;
                     int maxOff = Math.max(Math.abs(x - newX), Math.abs(y - newY));
                     if (maxOff == 2) {
-                        validKnightJumps.add(newInd);
+                        knightAttacks[ind] |= 1L << newInd;
                     }
                 }
             }
-            knightMoves[ind] = validKnightJumps.stream().mapToInt(i -> i).toArray();
 
-            ArrayList<Integer> validKingMoves = new ArrayList<>();
             for (int offset : ALL_OFFSETS) {
                 int newInd = ind + offset;
                 if (newInd >= 0 && newInd < 64) {
@@ -62,47 +78,27 @@ public class PrecomputedMoveData {
                     int newX = newInd - newY * 8;
                     int maxOff = Math.max(Math.abs(x - newX), Math.abs(y - newY));
                     if (maxOff == 1) {
-                        validKingMoves.add(newInd);
+                        kingAttacks[ind] |= 1L << newInd;
                     }
                 }
             }
-            kingMoves[ind] = validKingMoves.stream().mapToInt(i -> i).toArray();
 
-            ArrayList<Integer> validWhiteCaptures = new ArrayList<>();
-            ArrayList<Integer> validBlackCaptures = new ArrayList<>();
             if (x > 0) {
                 if (y < 7) {
-                    validBlackCaptures.add(ind + 7);
+                    pawnAttacks[Piece.BLACK][ind] |= 1L << (ind + 7);
                 }
                 if (y > 0) {
-                    validWhiteCaptures.add(ind - 9);
+                    pawnAttacks[Piece.WHITE][ind] |= 1L << (ind - 9);
                 }
             }
             if (x < 7) {
                 if (y < 7) {
-                    validBlackCaptures.add(ind + 9);
+                    pawnAttacks[Piece.BLACK][ind] |= 1L << (ind + 9);
                 }
                 if (y > 0) {
-                    validWhiteCaptures.add(ind - 7);
+                    pawnAttacks[Piece.WHITE][ind] |= 1L << (ind - 7);
                 }
             }
-            whitePawnAttacks[ind] = validWhiteCaptures.stream().mapToInt(i -> i).toArray();
-            blackPawnAttacks[ind] = validBlackCaptures.stream().mapToInt(i -> i).toArray();
-        }
-
-        directionLookup = new int[127];
-        for (int i = 0; i < 127; i++) {
-            int offset = i - 63;
-            int absOff = Math.abs(offset);
-            int absDir = 1;
-            if (absOff % 9 == 0) {
-                absDir = 9;
-            } else if (absOff % 8 == 0) {
-                absDir = 8;
-            } else if (absOff % 7 == 0) {
-                absDir = 7;
-            }
-            directionLookup[i] = absDir * (offset >= 0 ? 1 : -1);
         }
 
         distToCenter = new int[64];
@@ -117,5 +113,112 @@ public class PrecomputedMoveData {
                 distBetween[start][end] = Math.abs(startRow - endRow) + Math.abs(startCol - endCol);
             }
         }
+
+        calculateRays();
+        calculateMagics();
+    }
+
+    private static void calculateRays() {
+        between = new long[64][64];
+        lines = new long[64][64];
+        for (int start = 0; start < 64; start++) {
+            for (int offInd = 0; offInd < 8; offInd++) {
+                int offset = ALL_OFFSETS[offInd];
+                long ray = 0;
+                for (int i = 1; i <= distToEdge[start][offInd]; i++) {
+                    int end = start + offset * i;
+                    between[start][end] = ray;
+                    ray |= 1L << end;
+                }
+
+                // line runs edge to edge through start in both directions
+                int opposite = offInd ^ 1;
+                long line = 1L << start;
+                for (int i = 1; i <= distToEdge[start][offInd]; i++) {
+                    line |= 1L << (start + offset * i);
+                }
+                for (int i = 1; i <= distToEdge[start][opposite]; i++) {
+                    line |= 1L << (start - offset * i);
+                }
+                for (int i = 1; i <= distToEdge[start][offInd]; i++) {
+                    lines[start][start + offset * i] = line;
+                }
+            }
+        }
+    }
+
+    private static void calculateMagics() {
+        Random rand = new Random(MAGIC_SEED);
+        rookMasks = new long[64];
+        bishopMasks = new long[64];
+        rookMagics = new long[64];
+        bishopMagics = new long[64];
+        rookShifts = new int[64];
+        bishopShifts = new int[64];
+        rookTable = new long[64][];
+        bishopTable = new long[64][];
+
+        for (int ind = 0; ind < 64; ind++) {
+            rookMasks[ind] = slideAttacks(ind, 0, 0, 4, true);
+            bishopMasks[ind] = slideAttacks(ind, 0, 4, 8, true);
+            rookShifts[ind] = 64 - Long.bitCount(rookMasks[ind]);
+            bishopShifts[ind] = 64 - Long.bitCount(bishopMasks[ind]);
+            rookTable[ind] = new long[1 << Long.bitCount(rookMasks[ind])];
+            bishopTable[ind] = new long[1 << Long.bitCount(bishopMasks[ind])];
+            rookMagics[ind] = findMagic(ind, rookMasks[ind], rookShifts[ind], rookTable[ind], 0, 4, rand);
+            bishopMagics[ind] = findMagic(ind, bishopMasks[ind], bishopShifts[ind], bishopTable[ind], 4, 8, rand);
+        }
+    }
+
+    // walks every ray from ind, stopping at the first blocker
+    private static long slideAttacks(int ind, long occupied, int startOffInd, int endOffInd, boolean excludeEdges) {
+        long attacks = 0;
+        for (int offInd = startOffInd; offInd < endOffInd; offInd++) {
+            int offset = ALL_OFFSETS[offInd];
+            int dist = distToEdge[ind][offInd] - (excludeEdges ? 1 : 0);
+            for (int i = 1; i <= dist; i++) {
+                int curr = ind + offset * i;
+                attacks |= 1L << curr;
+                if ((occupied & (1L << curr)) != 0) {
+                    break;
+                }
+            }
+        }
+        return attacks;
+    }
+
+    private static long findMagic(int ind, long mask, int shift, long[] table, int startOffInd, int endOffInd, Random rand) {
+        int subsetCount = 1 << Long.bitCount(mask);
+        long[] blockers = new long[subsetCount];
+        long[] attacks = new long[subsetCount];
+        long subset = 0;
+        for (int i = 0; i < subsetCount; i++) {
+            // carry-rippler enumerates every subset of the mask
+            blockers[i] = subset;
+            attacks[i] = slideAttacks(ind, subset, startOffInd, endOffInd, false);
+            subset = (subset - mask) & mask;
+        }
+
+        boolean[] used = new boolean[subsetCount];
+        while (true) {
+            long magic = rand.nextLong() & rand.nextLong() & rand.nextLong();
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) {
+                continue;
+            }
+            Arrays.fill(used, false);
+            boolean failed = false;
+            for (int i = 0; i < subsetCount && !failed; i++) {
+                int key = (int)((blockers[i] * magic) >>> shift);
+                if (!used[key]) {
+                    used[key] = true;
+                    table[key] = attacks[i];
+                } else if (table[key] != attacks[i]) {
+                    failed = true;
+                }
+            }
+            if (!failed) {
+                return magic;
+            }
+        }
     }
 }
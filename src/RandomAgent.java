@@ -9,11 +9,11 @@ public class RandomAgent extends Agent {
     }
 
     @Override
-    public double getScore(Game g) {
+    public int getScore(Game g) {
         return 0;
     }
 
-    public double getEval(Game g) {
+    public int getEval(Game g) {
         return 0;
     }
 
@@ -4,31 +4,69 @@ public class ScottAgent extends Agent {
     long evalCount;
     int currDepth, targetDepth;
     Game copy;
-    Move bestMove;
-    double bestScore;
-    Move lastBestMove;
-    double lastBestScore;
+    int bestMove;
+    int bestScore;
+    int lastBestMove;
+    int lastBestScore;
     boolean searchCaptures;
-    MovePath bestPath;
-    MovePath lastBestPath;
-    MovePath root;
     TranspositionTable tt;
-    boolean abortSearch;
+    volatile boolean abortSearch;
     long maxMillis;
     Timer timer;
     Map<Long, Set<Move>> book;
     Random rand;
     int maxBookPly;
-
-    static final double IMMEDIATE_MATE_SCORE = 100000;
+    int[][] moveBuffers; // one move buffer per ply so the search never allocates move lists
+    int[][] scoreBuffers;
+    boolean[] nullBlocked; // plies where null move is off, right after a null move and during verification
+    int[] plyMoves; // move made at each ply of the current line, NONE for a null move
+    int[][] killers; // two quiet moves per ply that last caused a cutoff
+    int[][][] history; // [color][from][to], rises for quiet moves that cut off and falls for ones that did not
+    int[][] counterMoves; // [previous actor][previous end], the quiet move that last refuted it
+    int[][] quietsTried;
+    int[][] pvTable; // triangular, row ply holds the best line found from that ply
+    int[] pvLength;
+    int[] principalVariation; // line from the last finished iteration, searched first by the next one
+    int principalVariationLength;
+    boolean[] onPvLine; // whether every move leading to the ply follows principalVariation
+    int threads;
+    int hashMb;
+    int deltaMargin, futilityMargin, razorMargin; // pruning margins in centipawns, futility and razor are per ply of depth
+    ScottAgent[] helpers; // lazy smp workers, each with its own copy and buffers but sharing the tt
+    Thread[] helperThreads;
+
+    // scores are centipawns, mates count down from IMMEDIATE_MATE_SCORE by ply and everything fits in a short
+    static final int IMMEDIATE_MATE_SCORE = 32000, INFINITY = 32767;
+    static final int MAX_PLY = 128;
+    static final int ASPIRATION_WINDOW = 50;
+    static final int KILLER_SCORE = 30000, MAX_HISTORY = 16384;
+    static final int KING_TRAP_PHASE = 9; // the king trap term grows by one step for each phase unit and pawn below this
+    static final int KING_TRAP_MARGIN = 400; // piece material edge the king trap needs, queen against rook still counts
+    static final int[][] MVV_LVA = new int[6][6]; // [victim type][attacker type]
+    static final int DELTA_MARGIN = 200, FUTILITY_MARGIN = 150, RAZOR_MARGIN = 300;
+    static final int[][] LMR_REDUCTIONS = new int[MAX_PLY][MoveGenerator.MAX_MOVES]; // [depth][quiet moves searched]
+
+    static {
+        for (int victim = Piece.PAWN; victim <= Piece.KING; victim++) {
+            for (int attacker = Piece.PAWN; attacker <= Piece.KING; attacker++) {
+                MVV_LVA[victim][attacker] = Board.EXCHANGE_VALUES[victim] * 8 - attacker;
+            }
+        }
+        for (int depth = 1; depth < MAX_PLY; depth++) {
+            for (int searched = 1; searched < MoveGenerator.MAX_MOVES; searched++) {
+                LMR_REDUCTIONS[depth][searched] = (int)(0.75 + Math.log(depth) * Math.log(searched) / 2.25);
+            }
+        }
+    }
+    static final int STAGE_TT = 0, STAGE_CAPTURES = 1, STAGE_QUIETS = 2;
 
     public ScottAgent(String name, Game game, int color) {
         super(name, game, color);
         copy = new Game(game);
         evalCount = 0;
         this.timer = new Timer();
-        tt = new TranspositionTable(copy.board);
         rand = new Random();
+        initSearchTables();
         book = BookMaker.getBook("openings-all.pgn");
         try {
             String[] fields = name.split(",");
@@ -36,11 +74,28 @@ public class ScottAgent extends Agent {
             this.searchCaptures = Boolean.parseBoolean(fields[1]);
             this.maxMillis = Long.parseLong(fields[2]);
             this.maxBookPly = Integer.parseInt(fields[3]);
+            this.threads = fields.length > 4 ? Integer.parseInt(fields[4]) : 1;
+            this.deltaMargin = fields.length > 5 ? Integer.parseInt(fields[5]) : DELTA_MARGIN;
+            this.futilityMargin = fields.length > 6 ? Integer.parseInt(fields[6]) : FUTILITY_MARGIN;
+            this.razorMargin = fields.length > 7 ? Integer.parseInt(fields[7]) : RAZOR_MARGIN;
+            this.hashMb = fields.length > 8 ? Integer.parseInt(fields[8]) : TranspositionTable.DEFAULT_MB;
         } catch (Exception e) {
             this.targetDepth = -1;
             this.searchCaptures = true;
             this.maxMillis = 2000;
             this.maxBookPly = BookMaker.MAX_PLY;
+            this.threads = 1;
+            this.deltaMargin = DELTA_MARGIN;
+            this.futilityMargin = FUTILITY_MARGIN;
+            this.razorMargin = RAZOR_MARGIN;
+            this.hashMb = TranspositionTable.DEFAULT_MB;
+        }
+        tt = new TranspositionTable(hashMb);
+
+        helpers = new ScottAgent[Math.max(0, threads - 1)];
+        helperThreads = new Thread[helpers.length];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new ScottAgent(this);
         }
 
         if (maxBookPly == -1) {
@@ -51,88 +106,239 @@ public class ScottAgent extends Agent {
         }
     }
 
-    public double getMoveScore(Game g, Move move) {
-        double total = 0;
-        boolean isEndgame = g.isEndgame();
-        int startRow = move.start / 8;
-        int startCol = move.start - startRow * 8;
-        int endRow = move.end / 8;
-        int endCol = move.end - endRow * 8;
-        if (move.isCapture()) {
-            // not going to bother account for en passant here
-            int actorWeight = Piece.getWeight(move.actor, startRow, startCol, isEndgame);
-            int capturedWeight = Piece.getWeight(move.captured, endRow, endCol, isEndgame);
-            total += 10 * capturedWeight - actorWeight;
-        }
-        if (move.type == Move.PROMOTION) {
-            total += 2 * Piece.getWeight(move.promoteTo, endRow, endCol, isEndgame);
-        }
-        if (g.board.pawnThreats[move.end]) {
-            int endActorWeight = 350;//Piece.getWeight(move.actor, endRow, endCol, isEndgame);
-            total -= endActorWeight;
-        }
-        Move storedMove = tt.getMove();
-        if (storedMove != null && storedMove.equals(move)) {
-            total += 10000;
+    // helpers only search, so they skip the book and timer and share the main agent's tt
+    private ScottAgent(ScottAgent main) {
+        super(main.settings, main.game, main.color);
+        tt = main.tt;
+        searchCaptures = main.searchCaptures;
+        deltaMargin = main.deltaMargin;
+        futilityMargin = main.futilityMargin;
+        razorMargin = main.razorMargin;
+        initSearchTables();
+    }
+
+    // per thread search state, sized up front so the search itself never allocates
+    private void initSearchTables() {
+        moveBuffers = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+        scoreBuffers = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+        nullBlocked = new boolean[MAX_PLY];
+        plyMoves = new int[MAX_PLY];
+        killers = new int[MAX_PLY][2];
+        history = new int[2][64][64];
+        counterMoves = new int[16][64];
+        quietsTried = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+        pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+        pvLength = new int[MAX_PLY + 1];
+        principalVariation = new int[MAX_PLY + 1];
+        onPvLine = new boolean[MAX_PLY + 1];
+        onPvLine[0] = true; // the root is always on the line
+    }
+
+    public static boolean isQuiet(int move) {
+        return !Move.isCapture(move) && Move.getType(move) != Move.PROMOTION;
+    }
+
+    // killers and the counter move go first, then the rest by history
+    public int getQuietScore(int move, int ply) {
+        if (move == killers[ply][0]) {
+            return KILLER_SCORE;
+        }
+        if (move == killers[ply][1]) {
+            return KILLER_SCORE - 1000;
+        }
+        int previous = ply > 0 ? plyMoves[ply - 1] : Move.NONE;
+        if (previous != Move.NONE && move == counterMoves[Move.getActor(previous)][Move.getEnd(previous)]) {
+            return KILLER_SCORE - 2000;
+        }
+        return history[Piece.getColor(Move.getActor(move))][Move.getStart(move)][Move.getEnd(move)];
+    }
+
+    // gravity keeps each entry within MAX_HISTORY and lets recent results outweigh old ones
+    private void addHistory(int move, int bonus) {
+        int[] fromTo = history[Piece.getColor(Move.getActor(move))][Move.getStart(move)];
+        int end = Move.getEnd(move);
+        fromTo[end] += bonus - fromTo[end] * Math.abs(bonus) / MAX_HISTORY;
+    }
+
+    // a quiet move cut off, so reward it and penalize the quiet moves tried before it
+    public void updateQuietOrdering(int move, int ply, int depth, int quietCount) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int previous = ply > 0 ? plyMoves[ply - 1] : Move.NONE;
+        if (previous != Move.NONE) {
+            counterMoves[Move.getActor(previous)][Move.getEnd(previous)] = move;
+        }
+        int bonus = Math.min(depth * depth, MAX_HISTORY);
+        addHistory(move, bonus);
+        for (int i = 0; i < quietCount; i++) {
+            addHistory(quietsTried[ply][i], -bonus);
+        }
+    }
+
+    // killers are only useful for the search they came from, history is kept but weighed down
+    public void resetOrdering() {
+        for (int[] plyKillers : killers) {
+            plyKillers[0] = Move.NONE;
+            plyKillers[1] = Move.NONE;
+        }
+        for (int[][] colorHistory : history) {
+            for (int[] fromTo : colorHistory) {
+                for (int i = 0; i < fromTo.length; i++) {
+                    fromTo[i] /= 2;
+                }
+            }
+        }
+    }
+
+    // captures go most valuable victim first, then least valuable attacker. Only a capture of something
+    // cheaper than the attacker can lose material, so only those pay for an exchange evaluation, and losing
+    // ones get their negative exchange value so they sort after everything else.
+    public int getMoveScore(Game g, int move, int ply) {
+        if (Move.getType(move) == Move.PROMOTION) {
+            return g.board.staticExchange(move);
+        }
+        if (Move.isCapture(move)) {
+            int victim = Piece.getType(Move.getCaptured(move));
+            int attacker = Piece.getType(Move.getActor(move));
+            if (Board.EXCHANGE_VALUES[victim] < Board.EXCHANGE_VALUES[attacker]) {
+                int exchange = g.board.staticExchange(move);
+                if (exchange < 0) {
+                    return exchange;
+                }
+            }
+            return MVV_LVA[victim][attacker];
+        }
+        int total = getQuietScore(move, ply);
+        if (g.board.isPawnThreatened(Move.getEnd(move))) {
+            total -= 350;
         }
         return total;
     }
 
-    public double kingTrapWeight(Game g) {
-        double total = 0;
-        int endgameWeight = 12 - g.board.pieceCounts[0] - g.board.pieceCounts[1];
-        if (endgameWeight > 0) {
-            int otherKingInd = g.board.getKingInd(Piece.getOpposite(g.board.activeColor));
-            int kingInd = g.board.kingInd;
-            total += PrecomputedMoveData.distToCenter[otherKingInd];
-
-            total += 14 - PrecomputedMoveData.distBetween[kingInd][otherKingInd];
-            return total * 10 * endgameWeight;
-        } else {
+    // swaps the best scored move left in the buffer into index, so only tried moves pay for ordering
+    public static void pickMove(int[] moves, int[] scores, int index, int count) {
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        if (best != index) {
+            int move = moves[index];
+            moves[index] = moves[best];
+            moves[best] = move;
+            int score = scores[index];
+            scores[index] = scores[best];
+            scores[best] = score;
+        }
+    }
+
+    public static boolean isMateScore(int score) {
+        return Math.abs(score) >= IMMEDIATE_MATE_SCORE - MAX_PLY;
+    }
+
+    // helps a side that can mate drive the other king to the edge, more so as pieces and pawns come off.
+    // an extra pawn or minor piece is left to the tables, neither is anything to mate with on its own
+    public int kingTrapWeight(Game g) {
+        Board b = g.board;
+        int whitePawns = Long.bitCount(b.bitboards[Piece.WHITE][Piece.PAWN]);
+        int blackPawns = Long.bitCount(b.bitboards[Piece.BLACK][Piece.PAWN]);
+        int advantage = b.getBasicMaterialScore(Piece.WHITE) - b.getBasicMaterialScore(Piece.BLACK)
+                - (whitePawns - blackPawns) * Piece.getWeight(Piece.PAWN);
+        int endgameWeight = KING_TRAP_PHASE - b.phase - whitePawns - blackPawns;
+        if (Math.abs(advantage) < KING_TRAP_MARGIN || endgameWeight <= 0) {
+            return 0;
+        }
+        int strongColor = advantage > 0 ? Piece.WHITE : Piece.BLACK;
+        long[] strong = b.bitboards[strongColor];
+        if ((strong[Piece.ROOK] | strong[Piece.QUEEN]) == 0) {
             return 0;
         }
+        int kingInd = b.getKingInd(strongColor);
+        int otherKingInd = b.getKingInd(Piece.getOpposite(strongColor));
+        int total = PrecomputedMoveData.distToCenter[otherKingInd]; // at most 6
+        total += 14 - PrecomputedMoveData.distBetween[kingInd][otherKingInd]; // at most 12, the kings never touch
+        // scaled by the material edge so the bonus stays under half of it and never outweighs material
+        total = Math.abs(advantage) * total * endgameWeight / (2 * 20 * KING_TRAP_PHASE);
+        return strongColor == b.activeColor ? total : -total;
     }
 
-    public double getScore(Game g) {
-        double total = 0;
+    public int getScore(Game g) {
+        int total = 0;
         evalCount++;
         total += g.getMaterialScore() * (g.getActiveColor() == Piece.WHITE ? 1 : -1);
-        if (g.isEndgame()) {
-            total += kingTrapWeight(g);
-        }
+        total += kingTrapWeight(g);
 
         return total;
     }
 
-    public void processCaptures(ArrayList<Move> moves) {
-        for (int i = moves.size() - 1; i >= 0; i--) {
-            // TODO: change move generation to avoid this extra work
-            Move move = moves.get(i);
-            if (move.isCapture()) {
-                move.score = getMoveScore(copy, move);
-            } else {
-                moves.remove(i);
+    // fills the ply's buffers with one stage of moves, scored and without the already searched tt move
+    public int generateStage(int stage, int ply, int ttMove) {
+        int[] moves = moveBuffers[ply];
+        int[] scores = scoreBuffers[ply];
+        if (stage == STAGE_TT) {
+            if (ttMove == Move.NONE) {
+                return 0;
+            }
+            moves[0] = ttMove;
+            return 1;
+        }
+        int count = copy.board.generateMoves(moves, stage == STAGE_CAPTURES ? MoveGenerator.GEN_CAPTURES : MoveGenerator.GEN_QUIETS);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (moves[i] != ttMove) {
+                moves[kept] = moves[i];
+                scores[kept] = getMoveScore(copy, moves[i], ply);
+                kept++;
             }
         }
-        Collections.sort(moves);
+        return kept;
     }
 
-    public double searchCaptures(double alpha, double beta, MovePath path) {
-        double score = getScore(copy);
-        if (score >= beta) {
-            return beta;
+    public int searchCaptures(int ply, int alpha, int beta) {
+        pvLength[ply] = ply;
+        // in check there is no standing pat, every evasion is searched so mates are still seen
+        boolean inCheck = copy.board.isChecked();
+        int score;
+        int standPat = 0;
+        if (!inCheck || ply >= MAX_PLY) {
+            standPat = getScore(copy);
+            if (standPat >= beta) {
+                return beta;
+            }
+            alpha = Math.max(alpha, standPat);
+            if (ply >= MAX_PLY) {
+                return alpha;
+            }
         }
-        alpha = Math.max(alpha, score);
 
-        ArrayList<Move> moves = new ArrayList<>(copy.board.moves);
-        processCaptures(moves);
+        // quiet moves are never generated here unless they are needed to escape check
+        int[] moves = moveBuffers[ply];
+        int[] scores = scoreBuffers[ply];
+        int count = copy.board.generateMoves(moves, inCheck ? MoveGenerator.GEN_ALL : MoveGenerator.GEN_CAPTURES);
+        if (inCheck && count == 0) {
+            return -IMMEDIATE_MATE_SCORE + ply;
+        }
+        for (int i = 0; i < count; i++) {
+            scores[i] = getMoveScore(copy, moves[i], ply);
+        }
 
-        for (Move move : moves) {
-            copy.makeMove(move);
-            path.next = new MovePath(move);
-            path.zobristKey = copy.board.zobristKey;
-            score = -searchCaptures(-beta, -alpha, path.next);
-            copy.unmakeMove(move);
+        for (int i = 0; i < count; i++) {
+            pickMove(moves, scores, i, count);
+            if (!inCheck && scores[i] < 0) {
+                break; // the rest lose material in the exchange, standing pat is at least as good
+            }
+            int move = moves[i];
+            // delta pruning, even winning the captured piece for free would leave this below alpha
+            if (!inCheck && Move.getType(move) != Move.PROMOTION
+                    && standPat + Board.EXCHANGE_VALUES[Piece.getType(Move.getCaptured(move))] + deltaMargin <= alpha) {
+                continue;
+            }
+            copy.board.makeMove(move);
+            score = -searchCaptures(ply + 1, -beta, -alpha);
+            copy.board.unmakeMove(move);
 
             if (score >= beta) {
                 return beta;
@@ -143,98 +349,206 @@ public class ScottAgent extends Agent {
         return alpha;
     }
 
-    public double search(int depth, double alpha, double beta, MovePath path) {
+    public int search(int depth, int ply, int alpha, int beta) {
+        pvLength[ply] = ply;
         if (abortSearch) {
             return 0;
         }
 
-        ArrayList<Move> moves = new ArrayList<>(copy.board.moves);
-        if (moves.size() == 0) {
-            if (copy.board.isChecked()) {
-                return -IMMEDIATE_MATE_SCORE + (this.currDepth - depth);
-            }
-            return 0;
-        } else if (depth != this.currDepth) {
-            if (game.hasBeenSeen(copy.board.zobristKey)) {
+        if (ply > 0) {
+            if (copy.board.isRepetition() || copy.board.isFiftyMoveDraw()) {
                 return 0;
             }
-            alpha = Math.max(alpha, -IMMEDIATE_MATE_SCORE + (this.currDepth - depth));
-            beta = Math.min(beta, IMMEDIATE_MATE_SCORE - (this.currDepth - depth));
+            alpha = Math.max(alpha, -IMMEDIATE_MATE_SCORE + ply);
+            beta = Math.min(beta, IMMEDIATE_MATE_SCORE - ply);
             if (alpha >= beta) {
                 return alpha;
             }
         }
 
-        double storedEval = tt.lookupEval(depth, alpha, beta);
-        if (storedEval != Double.MIN_VALUE) {
-            if (this.currDepth == depth) {
-                lastBestMove = tt.getMove();
-                lastBestScore = tt.entries[tt.getIndex()].eval;
+        // the root is always searched, so the move it returns comes from this position's legal moves, and so
+        // is every other pv node, so the line in pvTable runs all the way down instead of stopping at a tt hit
+        long key = copy.board.zobristKey;
+        boolean pvNode = beta - alpha > 1;
+        if (ply > 0 && !pvNode) {
+            int storedEval = tt.lookupEval(key, depth, ply, alpha, beta);
+            if (storedEval != TranspositionTable.NO_EVAL) {
+                return storedEval;
             }
-            return storedEval;
         }
 
-        if (depth == 0) {
+        if (depth == 0 || ply >= MAX_PLY - 1) {
             if (searchCaptures) {
-                return searchCaptures(alpha, beta, path);
-            } else {
+                return searchCaptures(ply, alpha, beta);
+            }
+            if (copy.board.generateMoves(moveBuffers[ply]) > 0) {
                 return getScore(copy);
             }
+            return copy.board.isChecked() ? -IMMEDIATE_MATE_SCORE + ply : 0;
         }
 
-        for (Move move : moves) {
-            move.score = getMoveScore(copy, move);
-        }
-        Collections.sort(moves);
+        boolean inCheck = copy.board.isChecked();
+        int staticEval = inCheck ? -IMMEDIATE_MATE_SCORE : getScore(copy);
+        boolean shallow = ply > 0 && depth <= 2 && !inCheck && !pvNode && !isMateScore(beta);
 
-        int evalType = TranspositionTable.Entry.UPPER;
-        Move bestInPos = null;
+        // reverse futility, far enough above beta that the opponent is not expected to recover within depth
+        if (shallow && staticEval - futilityMargin * depth >= beta) {
+            return beta;
+        }
 
-        for (Move move : moves) {
-            copy.makeMove(move);
-            path.next = new MovePath(move);
-            path.zobristKey = copy.board.zobristKey;
-            double score = -search(depth - 1, -beta, -alpha, path.next);
-            copy.unmakeMove(move);
+        // razoring, far enough below alpha that only captures are worth checking
+        if (shallow && searchCaptures && staticEval + razorMargin * depth <= alpha) {
+            int score = searchCaptures(ply, alpha, beta);
+            if (score <= alpha) {
+                return alpha;
+            }
+        }
 
+        // quiet moves that do not check cannot bring this back up to alpha before the horizon
+        boolean futile = shallow && staticEval + futilityMargin * depth <= alpha;
+
+        // null move pruning, if passing still fails high a real move almost surely would too
+        if (ply > 0 && depth >= 3 && !nullBlocked[ply] && !isMateScore(beta)
+                && !inCheck && copy.board.hasPieces(copy.board.activeColor) && staticEval >= beta) {
+            int reduction = depth > 6 ? 3 : 2;
+            copy.board.makeNullMove();
+            plyMoves[ply] = Move.NONE;
+            onPvLine[ply + 1] = false;
+            nullBlocked[ply + 1] = true;
+            int score = -search(depth - 1 - reduction, ply + 1, -beta, -beta + 1);
+            nullBlocked[ply + 1] = false;
+            copy.board.unmakeNullMove();
+            if (abortSearch) {
+                return 0;
+            }
             if (score >= beta) {
-                tt.storeEval(depth, beta, TranspositionTable.Entry.LOWER, move);
-                return beta;
+                if (!copy.isEndgame()) {
+                    return beta;
+                }
+                // zugzwang is common with little material, so confirm with a reduced search that may not pass
+                nullBlocked[ply] = true;
+                score = search(depth - reduction, ply, beta - 1, beta);
+                nullBlocked[ply] = false;
+                if (score >= beta) {
+                    return beta;
+                }
+                pvLength[ply] = ply;
             }
+        }
+
+        // moves are generated a stage at a time, so a cutoff from the tt move or a capture skips the quiet moves
+        int[] moves = moveBuffers[ply];
+        int[] scores = scoreBuffers[ply];
+        int storedMove = tt.getMove(key, copy.board);
+        if (!copy.board.isLegal(storedMove)) {
+            storedMove = Move.NONE;
+        }
+        int ttMove = storedMove;
+        // the last iteration's line goes first while this node is still on it, the stored move then comes with the quiets
+        if (onPvLine[ply] && ply < principalVariationLength && copy.board.isLegal(principalVariation[ply])) {
+            ttMove = principalVariation[ply];
+        }
+
+        int evalType = TranspositionTable.UPPER;
+        int bestInPos = Move.NONE;
+        int searched = 0;
+        int quietCount = 0;
+        int quietsSearched = 0; // moves searched in the quiet stage, the ones late move reductions count
+        boolean pruned = false;
+
+        for (int stage = STAGE_TT; stage <= STAGE_QUIETS; stage++) {
+            int count = generateStage(stage, ply, ttMove);
+            for (int i = 0; i < count; i++) {
+                pickMove(moves, scores, i, count);
+                int move = moves[i];
+                copy.board.makeMove(move);
+                if (futile && stage == STAGE_QUIETS && !copy.board.isChecked()) {
+                    copy.board.unmakeMove(move);
+                    pruned = true;
+                    continue;
+                }
+                plyMoves[ply] = move;
+                onPvLine[ply + 1] = onPvLine[ply] && ply < principalVariationLength && move == principalVariation[ply];
+                int score;
+                if (searched == 0) {
+                    score = -search(depth - 1, ply + 1, -beta, -alpha);
+                } else {
+                    // late quiet moves are unlikely to be best, so they get a shallower search unless they check
+                    int reduction = 0;
+                    boolean refutation = scores[i] >= KILLER_SCORE - 3000; // killers and counter moves, even when pawn threatened
+                    if (stage == STAGE_QUIETS && depth >= 3 && quietsSearched >= 3 && move != storedMove && !refutation
+                            && !inCheck && !copy.board.isChecked()) {
+                        reduction = Math.min(depth - 2, LMR_REDUCTIONS[Math.min(depth, MAX_PLY - 1)][quietsSearched]);
+                    }
+                    // principal variation search, later moves only have to prove they are no better than alpha
+                    score = -search(depth - 1 - reduction, ply + 1, -alpha - 1, -alpha);
+                    if (score > alpha && reduction > 0) {
+                        score = -search(depth - 1, ply + 1, -alpha - 1, -alpha);
+                    }
+                    if (score > alpha && score < beta) {
+                        score = -search(depth - 1, ply + 1, -beta, -alpha);
+                    }
+                }
+                copy.board.unmakeMove(move);
+                searched++;
+                if (stage == STAGE_QUIETS) {
+                    quietsSearched++;
+                }
+                if (abortSearch) {
+                    return 0; // unfinished scores must not reach the shared tt
+                }
 
-            if (score > alpha) {
-                evalType = TranspositionTable.Entry.EXACT;
-                bestInPos = move;
+                if (score >= beta) {
+                    if (isQuiet(move)) {
+                        updateQuietOrdering(move, ply, depth, quietCount);
+                    }
+                    tt.storeEval(key, depth, ply, beta, TranspositionTable.LOWER, move);
+                    return beta;
+                }
+                if (isQuiet(move)) {
+                    quietsTried[ply][quietCount++] = move;
+                }
 
-                alpha = score;
-                if (depth == this.currDepth) {
-                    lastBestScore = score;
-                    lastBestMove = move;
-                    lastBestPath = root.next;
+                if (score > alpha) {
+                    evalType = TranspositionTable.EXACT;
+                    bestInPos = move;
+
+                    alpha = score;
+                    pvTable[ply][ply] = move;
+                    System.arraycopy(pvTable[ply + 1], ply + 1, pvTable[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+                    pvLength[ply] = pvLength[ply + 1];
+                    if (ply == 0) {
+                        lastBestScore = score;
+                        lastBestMove = move;
+                    }
                 }
             }
         }
 
-        tt.storeEval(depth, alpha, evalType, bestInPos);
+        if (searched == 0) {
+            if (pruned) {
+                return alpha; // there were moves, they just could not reach alpha
+            }
+            return copy.board.isChecked() ? -IMMEDIATE_MATE_SCORE + ply : 0;
+        }
+
+        tt.storeEval(key, depth, ply, alpha, evalType, bestInPos);
 
         return alpha;
     }
 
     public Move getMove(Game game, int color) {
-        tt.clear(); // might help?
+        tt.newSearch();
+        resetOrdering();
         this.evalCount = 0;
         this.game = game;
         this.abortSearch = false;
 
-        this.bestScore = -999999;
-        this.bestMove = null;
-        this.bestPath = null;
-        this.lastBestScore = -999999;
-        this.lastBestMove = null;
-        this.lastBestPath = null;
-
-        root = new MovePath();
-        root.zobristKey = copy.board.zobristKey;
+        this.bestScore = -INFINITY;
+        this.bestMove = Move.NONE;
+        this.lastBestScore = -INFINITY;
+        this.lastBestMove = Move.NONE;
+        this.principalVariationLength = 0;
 
         if (copy.fullMoves <= maxBookPly && book.containsKey(copy.board.zobristKey)) {
             Set<Move> candidates = book.get(copy.board.zobristKey);
@@ -253,63 +567,128 @@ public class ScottAgent extends Agent {
 
         Interrupter interrupter = new Interrupter(this);
         this.timer.schedule(interrupter, maxMillis);
+        startHelpers();
 
-        for (currDepth = 1; currDepth <= targetDepth; currDepth++) {
-            search(currDepth, -9999999, 9999999, root);
+        // a root whose children all return at once finishes iterations instantly, so depth is capped like the helpers'
+        for (currDepth = 1; currDepth <= targetDepth && currDepth < MAX_PLY; currDepth++) {
+            aspirationSearch(currDepth);
             if (abortSearch) {
                 break;
             } else {
                 bestMove = lastBestMove;
                 bestScore = lastBestScore;
-                bestPath = lastBestPath;
+                savePrincipalVariation();
 
-                if (Math.abs(bestScore) + 1000 > IMMEDIATE_MATE_SCORE) {
+                if (isMateScore(bestScore)) {
                     int winningColor = color;
                     if (bestScore < 0) {
                         winningColor = Piece.getOpposite(color);
                     }
 
-                    System.out.println((winningColor == Piece.WHITE ? "WHITE" : "BLACK") + " HAS MATE IN " + (currDepth + 1) / 2);
+                    // mate scores count plies from the root, the search depth that found it says nothing about its length
+                    int mateMoves = (IMMEDIATE_MATE_SCORE - Math.abs(bestScore) + 1) / 2;
+                    System.out.println((winningColor == Piece.WHITE ? "WHITE" : "BLACK") + " HAS MATE IN " + mateMoves + ": " + getPrincipalVariation());
                     break;
                 }
             }
         }
         interrupter.cancel();
+        stopHelpers();
 
-        return bestMove;
+        return bestMove == Move.NONE ? null : new Move(bestMove);
     }
 
-    private class Interrupter extends TimerTask {
-        ScottAgent agent;
+    // searches a window around the last iteration's score, widening whichever side fails until the score lands inside
+    public int aspirationSearch(int depth) {
+        if (depth == 1 || isMateScore(bestScore)) {
+            return search(depth, 0, -INFINITY, INFINITY);
+        }
+        int delta = ASPIRATION_WINDOW;
+        int alpha = bestScore - delta;
+        int beta = bestScore + delta;
+        while (true) {
+            int score = search(depth, 0, alpha, beta);
+            if (abortSearch) {
+                return score;
+            }
+            if (score <= alpha) {
+                alpha = Math.max(-INFINITY, alpha - delta);
+            } else if (score >= beta) {
+                beta = Math.min(INFINITY, beta + delta);
+            } else {
+                return score;
+            }
+            delta *= 2;
+        }
+    }
 
-        public Interrupter(ScottAgent agent) {
-            this.agent = agent;
+    // lazy smp, helpers run their own iterative deepening on the same position and only share results through the tt
+    private void startHelpers() {
+        for (int i = 0; i < helpers.length; i++) {
+            ScottAgent helper = helpers[i];
+            helper.copy = new Game(copy);
+            helper.game = game;
+            helper.abortSearch = false;
+            helper.evalCount = 0;
+            helper.resetOrdering();
+            int startDepth = 1 + (i + 1) % 2; // every other helper starts a ply deeper so threads spread over depths
+            helperThreads[i] = new Thread(() -> helper.helperSearch(startDepth));
+            helperThreads[i].setDaemon(true);
+            helperThreads[i].start();
         }
+    }
 
-        @Override
-        public void run() {
-            agent.abortSearch = true;
+    private void stopHelpers() {
+        for (ScottAgent helper : helpers) {
+            helper.abortSearch = true;
+        }
+        for (int i = 0; i < helpers.length; i++) {
+            try {
+                helperThreads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            evalCount += helpers[i].evalCount;
+        }
+    }
+
+    private void helperSearch(int startDepth) {
+        principalVariationLength = 0;
+        for (currDepth = startDepth; currDepth < MAX_PLY && !abortSearch; currDepth++) {
+            search(currDepth, 0, -INFINITY, INFINITY);
+            if (!abortSearch) {
+                savePrincipalVariation();
+            }
         }
     }
 
-    private class MovePath {
-        MovePath next;
-        Move move;
-        long zobristKey;
+    // keeps the root line of a finished iteration so the next one follows it first
+    private void savePrincipalVariation() {
+        principalVariationLength = pvLength[0];
+        System.arraycopy(pvTable[0], 0, principalVariation, 0, principalVariationLength);
+    }
+
+    public String getPrincipalVariation() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < principalVariationLength; i++) {
+            if (i > 0) {
+                line.append(" ");
+            }
+            line.append(Move.toCoordinates(principalVariation[i]));
+        }
+        return line.toString();
+    }
 
-        public MovePath(){}
+    private class Interrupter extends TimerTask {
+        ScottAgent agent;
 
-        public MovePath(Move move) {
-            this.move = move;
+        public Interrupter(ScottAgent agent) {
+            this.agent = agent;
         }
 
-        public String toString() {
-            if (next != null && move != null) {
-                return move.toString() + ", " + next.toString();
-            } else if (next == null && move != null) {
-                return move.toString();
-            }
-            return "";
+        @Override
+        public void run() {
+            agent.abortSearch = true;
         }
     }
 }
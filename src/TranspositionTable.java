@@ -1,69 +1,142 @@
+import java.util.Arrays;
+
+// Entries are packed into pairs of longs, the key xor the data and then the data itself. Threads share the
+// table without locking, and java does not promise that a long write is atomic, so a torn or interleaved
+// write just looks like a different key. https://www.chessprogramming.org/Shared_Hash_Table
 public class TranspositionTable {
-    static final int TT_SIZE = 1024000;
-    Board board;
-    Entry[] entries;
-
-    public TranspositionTable(Board board) {
-        entries = new Entry[TT_SIZE];
-        clear();
-        this.board = board;
+    static final int DEFAULT_MB = 16;
+    static final int BUCKET_SIZE = 4; // entries per bucket, 64 bytes so a bucket shares a cache line
+
+    public static final int EXACT = 0;
+    public static final int UPPER = 1;
+    public static final int LOWER = 2;
+    public static final int NO_EVAL = Integer.MIN_VALUE; // returned on a miss, outside the range of any score
+
+    // data is move | score << 16 | depth << 32 | type << 40 | age << 42
+    static final long MOVE_MASK = 0xFFFF;
+    static final int SCORE_SHIFT = 16, DEPTH_SHIFT = 32, TYPE_SHIFT = 40, AGE_SHIFT = 42;
+    static final int AGE_MASK = 0b111111;
+
+    long[] table;
+    int bucketMask;
+    int age;
+
+    public TranspositionTable() {
+        this(DEFAULT_MB);
+    }
+
+    public TranspositionTable(int megabytes) {
+        long bytes = megabytes * 1024L * 1024L;
+        int buckets = (int)Long.highestOneBit(Math.max(1, Math.min(bytes / (BUCKET_SIZE * 16), 1 << 27))); // 2^30 longs, java arrays stop short of 2^31
+        table = new long[buckets * BUCKET_SIZE * 2];
+        bucketMask = buckets - 1;
+    }
+
+    // index of the first long in the key's bucket
+    public int getIndex(long key) {
+        return ((int)key & bucketMask) * BUCKET_SIZE * 2;
+    }
+
+    // returns the data stored for the key, or 0 if it is not in the table
+    public long probe(long key) {
+        int index = getIndex(key);
+        for (int i = index; i < index + BUCKET_SIZE * 2; i += 2) {
+            long data = table[i + 1];
+            if (data != 0 && (table[i] ^ data) == key) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    public int lookupEval(long key, int depth, int ply, int alpha, int beta) {
+        long entry = probe(key);
+        if (entry != 0 && getDepth(entry) >= depth) {
+            int type = getType(entry);
+            int eval = getEval(entry, ply);
+            if (type == EXACT) {
+                return eval;
+            }
+            if (type == UPPER && eval <= alpha) {
+                return eval;
+            }
+            if (type == LOWER && eval >= beta) {
+                return eval;
+            }
+        }
+        return NO_EVAL;
     }
 
-    public int getIndex() {
-        return (int)(Math.abs(board.zobristKey) % TT_SIZE);
+    // the table only keeps the compact move, so the board it is for rebuilds the rest
+    public int getMove(long key, Board board) {
+        return Move.fromCompact((int)(probe(key) & MOVE_MASK), board);
     }
 
-    public double lookupEval(int depth, double alpha, double beta) {
-        Entry entry = entries[getIndex()];
-        if (entry.key == board.zobristKey) {
-            if (entry.depth >= depth) {
-                if (entry.type == Entry.EXACT) {
-                    return entry.eval;
-                }
-                if (entry.type == Entry.UPPER && entry.eval <= alpha) {
-                    return entry.eval;
-                }
-                if (entry.type == Entry.LOWER && entry.eval >= beta) {
-                    return entry.eval;
-                }
+    public void storeEval(long key, int depth, int ply, int eval, int evalType, int move) {
+        int index = getIndex(key);
+        int replace = index;
+        int replaceValue = Integer.MAX_VALUE;
+        for (int i = index; i < index + BUCKET_SIZE * 2; i += 2) {
+            long entry = table[i + 1];
+            if (entry != 0 && (table[i] ^ entry) == key) {
+                // same position, keep the old move if this search did not find one
+                int compactMove = move == Move.NONE ? (int)(entry & MOVE_MASK) : Move.toCompact(move);
+                write(i, key, pack(compactMove, eval, depth, ply, evalType));
+                return;
+            }
+            // prefer replacing shallow entries, and entries from older searches before those
+            int value = entry == 0 ? Integer.MIN_VALUE : getDepth(entry) - 8 * ((age - getAge(entry)) & AGE_MASK);
+            if (value < replaceValue) {
+                replaceValue = value;
+                replace = i;
             }
         }
-        return Double.MIN_VALUE;
+        write(replace, key, pack(Move.toCompact(move), eval, depth, ply, evalType));
     }
 
-    public Move getMove() {
-        return entries[getIndex()].move;
+    private void write(int index, long key, long data) {
+        table[index] = key ^ data;
+        table[index + 1] = data;
     }
 
-    public void storeEval(int depth, double eval, int evalType, Move move) {
-        entries[getIndex()] = new Entry(board.zobristKey, eval, depth, evalType, move);
+    // called before every search, entries from older searches still order moves but are the first to be replaced
+    public void newSearch() {
+        age = (age + 1) & AGE_MASK;
     }
 
     public void clear() {
-        for (int i = 0; i < TT_SIZE; i++) {
-            entries[i] = new Entry();
+        Arrays.fill(table, 0);
+    }
+
+    // mate scores count plies from the root, so they are stored relative to this node and shifted back on lookup
+    private long pack(int compactMove, int eval, int depth, int ply, int type) {
+        if (ScottAgent.isMateScore(eval)) {
+            eval += eval > 0 ? ply : -ply;
         }
+        return compactMove
+                | ((long)eval & 0xFFFF) << SCORE_SHIFT
+                | (long)Math.min(depth, 255) << DEPTH_SHIFT
+                | (long)type << TYPE_SHIFT
+                | (long)age << AGE_SHIFT;
     }
 
-    public class Entry {
-        public long key;
-        public double eval;
-        public Move move;
-        public int depth;
-        public int type;
-
-        public static final int EXACT = 0;
-        public static final int UPPER = 1;
-        public static final int LOWER = 2;
-
-        public Entry() {}
-
-        public Entry(long key, double eval, int depth, int type, Move move) {
-            this.key = key;
-            this.eval = eval;
-            this.move = move;
-            this.depth = depth;
-            this.type = type;
+    public static int getEval(long entry, int ply) {
+        int eval = (short)(entry >>> SCORE_SHIFT);
+        if (ScottAgent.isMateScore(eval)) {
+            eval -= eval > 0 ? ply : -ply;
         }
+        return eval;
+    }
+
+    public static int getDepth(long entry) {
+        return (int)(entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    public static int getType(long entry) {
+        return (int)(entry >>> TYPE_SHIFT) & 0b11;
+    }
+
+    public static int getAge(long entry) {
+        return (int)(entry >>> AGE_SHIFT) & AGE_MASK;
     }
 }
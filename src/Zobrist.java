@@ -60,17 +60,15 @@ public class Zobrist {
             }
         }
 
-        int enCol = 0;
-        if (board.enPassantable == -1) {
-            enCol = (board.enPassantable % 8) + 1;
+        if (board.enPassantable != Board.EMPTY) {
+            key ^= enPassantFile[(board.enPassantable % 8) + 1];
         }
-        key ^= enPassantFile[enCol];
 
         if (board.activeColor == Piece.BLACK) {
             key ^= activeColor;
         }
 
-        key ^= castlingRights[board.getCastleRights()];
+        key ^= castlingRights[board.castleRights];
 
         return key;
     }